@@ -18,10 +18,8 @@ package com.example.android.pets;
 import android.app.LoaderManager;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
 import android.content.Intent;
 import android.content.Loader;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 
@@ -29,31 +27,59 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetStore;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
 /**
  * Displays list of pets that were entered and stored in the app.
  */
 public class CatalogActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+        LoaderManager.LoaderCallbacks<PetPagedList> {
 
     /** Identifier for the pet data loader */
     private static final int PET_LOADER = 0;
 
-    /** Adapter for the ListView */
-    PetCursorAdapter mCursorAdapter;
+    /** Keys of the view of the pets in the saved instance state */
+    private static final String STATE_GENDER = "gender";
+    private static final String STATE_SORT_COLUMN = "sort_column";
+
+    /** Number of pets loaded at a time */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * Number of pets before and after the row being shown that are loaded ahead of time. This
+     * has to be more than a screen of rows, so that the rows on screen are kept loaded.
+     */
+    private static final int PREFETCH_DISTANCE = 100;
+
+    /** Adapter for the RecyclerView */
+    PetListAdapter mListAdapter;
+
+    /** View shown instead of the list when there are no pets */
+    private View mEmptyView;
+
+    /** Gender of the pets shown, or {@link PetStore#ANY_GENDER} */
+    private int mGender = PetStore.ANY_GENDER;
+
+    /** Column the pets are shown in the order of */
+    private String mSortColumn = PetEntry._ID;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
 
+        if (savedInstanceState != null) {
+            mGender = savedInstanceState.getInt(STATE_GENDER, PetStore.ANY_GENDER);
+            mSortColumn = savedInstanceState.getString(STATE_SORT_COLUMN, PetEntry._ID);
+        }
+
         // Setup FAB to open EditorActivity
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
         fab.setOnClickListener(new View.OnClickListener() {
@@ -64,23 +90,18 @@ public class CatalogActivity extends AppCompatActivity implements
             }
         });
 
-        // Find the ListView which will be populated with the pet data
-        ListView petListView = (ListView) findViewById(R.id.list);
-
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        petListView.setEmptyView(emptyView);
+        // Find the RecyclerView which will be populated with the pet data
+        RecyclerView petRecyclerView = (RecyclerView) findViewById(R.id.list);
+        petRecyclerView.setLayoutManager(new LinearLayoutManager(this));
 
-        // Setup an Adapter to create a list item for each row of pet data in the Cursor.
-        // There is no pet data yet (until the loader finishes) so pass in null for the Cursor.
-        mCursorAdapter = new PetCursorAdapter(this, null);
-        petListView.setAdapter(mCursorAdapter);
+        // Find the empty view, shown instead of the list when there are no pets
+        mEmptyView = findViewById(R.id.empty_view);
 
-
-        // Setup the item click listener
-        petListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Setup an Adapter to create a list item for each pet. There are no pets yet (until the
+        // loader finishes), and clicking on a pet opens it in the {@link EditorActivity}.
+        mListAdapter = new PetListAdapter(new PetListAdapter.OnPetClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onPetClick(long id) {
                 // Create new intent to go to {@link EditorActivity}
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
 
@@ -98,11 +119,19 @@ public class CatalogActivity extends AppCompatActivity implements
                 startActivity(intent);
             }
         });
+        petRecyclerView.setAdapter(mListAdapter);
 
         // Kick off the loader
         getLoaderManager().initLoader(PET_LOADER, null, this);
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putInt(STATE_GENDER, mGender);
+        outState.putString(STATE_SORT_COLUMN, mSortColumn);
+    }
+
     /**
      * Helper method to insert hardcoded pet data into the database. For debugging purposes only.
      */
@@ -138,6 +167,40 @@ public class CatalogActivity extends AppCompatActivity implements
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // Check the options of the view being shown
+        int sortItemId;
+        if (PetEntry.COLUMN_PET_NAME.equals(mSortColumn)) {
+            sortItemId = R.id.action_sort_name;
+        } else if (PetEntry.COLUMN_PET_BREED.equals(mSortColumn)) {
+            sortItemId = R.id.action_sort_breed;
+        } else if (PetEntry.COLUMN_PET_WEIGHT.equals(mSortColumn)) {
+            sortItemId = R.id.action_sort_weight;
+        } else {
+            sortItemId = R.id.action_sort_added;
+        }
+        menu.findItem(sortItemId).setChecked(true);
+
+        int genderItemId;
+        switch (mGender) {
+            case PetEntry.GENDER_MALE:
+                genderItemId = R.id.action_filter_male;
+                break;
+            case PetEntry.GENDER_FEMALE:
+                genderItemId = R.id.action_filter_female;
+                break;
+            case PetEntry.GENDER_UNKNOWN:
+                genderItemId = R.id.action_filter_unknown_gender;
+                break;
+            default:
+                genderItemId = R.id.action_filter_any_gender;
+                break;
+        }
+        menu.findItem(genderItemId).setChecked(true);
+        return true;
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -150,37 +213,80 @@ public class CatalogActivity extends AppCompatActivity implements
             case R.id.action_delete_all_entries:
                 deleteAllPets();
                 return true;
+            // Respond to a click on one of the "Sort by" options
+            case R.id.action_sort_added:
+                setView(mGender, PetEntry._ID);
+                return true;
+            case R.id.action_sort_name:
+                setView(mGender, PetEntry.COLUMN_PET_NAME);
+                return true;
+            case R.id.action_sort_breed:
+                setView(mGender, PetEntry.COLUMN_PET_BREED);
+                return true;
+            case R.id.action_sort_weight:
+                setView(mGender, PetEntry.COLUMN_PET_WEIGHT);
+                return true;
+            // Respond to a click on one of the "Show" options
+            case R.id.action_filter_any_gender:
+                setView(PetStore.ANY_GENDER, mSortColumn);
+                return true;
+            case R.id.action_filter_male:
+                setView(PetEntry.GENDER_MALE, mSortColumn);
+                return true;
+            case R.id.action_filter_female:
+                setView(PetEntry.GENDER_FEMALE, mSortColumn);
+                return true;
+            case R.id.action_filter_unknown_gender:
+                setView(PetEntry.GENDER_UNKNOWN, mSortColumn);
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Shows the pets of the given gender (or every pet, for {@link PetStore#ANY_GENDER}) in the
+     * order of the given column.
+     */
+    private void setView(int gender, String sortColumn) {
+        mGender = gender;
+        mSortColumn = sortColumn;
+        Loader<PetPagedList> loader = getLoaderManager().getLoader(PET_LOADER);
+        ((PetListLoader) loader).setView(gender, sortColumn);
+    }
+
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                PetEntry._ID,
-                PetEntry.COLUMN_PET_NAME,
-                PetEntry.COLUMN_PET_BREED };
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                PetEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+    public Loader<PetPagedList> onCreateLoader(int i, Bundle bundle) {
+        // This loader will query the ContentProvider on a background thread, and again whenever
+        // the pets change, reading only the pets around the rows being shown. Other views are
+        // filtered from a copy of the pets it keeps in memory, without querying again.
+        PetListLoader loader = new PetListLoader(this, PAGE_SIZE, PREFETCH_DISTANCE);
+        loader.setView(mGender, mSortColumn);
+        return loader;
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link PetCursorAdapter} with this new cursor containing updated pet data
-        mCursorAdapter.swapCursor(data);
+    public void onLoadFinished(Loader<PetPagedList> loader, PetPagedList pets) {
+        // Update {@link PetListAdapter} with the new list of pets; it works out what changed on
+        // a background thread, and the empty view is updated once the list is shown
+        mListAdapter.submitList(pets, new Runnable() {
+            @Override
+            public void run() {
+                updateEmptyView();
+            }
+        });
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
+    public void onLoaderReset(Loader<PetPagedList> loader) {
         // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+        mListAdapter.submitList(null, null);
+    }
+
+    /**
+     * Shows the empty view if and only if the list has no pets.
+     */
+    private void updateEmptyView() {
+        mEmptyView.setVisibility(mListAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 }
 //
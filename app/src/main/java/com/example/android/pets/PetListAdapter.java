@@ -0,0 +1,309 @@
+package com.example.android.pets;
+
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.android.pets.data.Pet;
+
+import java.util.List;
+
+/**
+ * {@link PetListAdapter} is an adapter for a {@link RecyclerView} that shows a
+ * {@link PetPagedList} of pets, as loaded by {@link PetListLoader}.
+ *
+ * Binding a row tells the list which position is being shown, so it loads the pages around it;
+ * rows whose page isn't loaded yet are shown blank until it is. When a new list is submitted,
+ * the pets it loaded up front are compared by {@link DiffUtil} on a background thread with the
+ * pets the current list had at those positions, moved by the pets added or removed before them
+ * (see {@link PetPagedList#getShift}), so editing a pet only rebinds (and animates) that pet's
+ * row, and the rows on screen stay in place when pets are added or removed before them. Rows
+ * have the pet IDs as stable IDs.
+ */
+public class PetListAdapter extends RecyclerView.Adapter<PetListAdapter.PetViewHolder>
+        implements PetPagedList.Callback {
+
+    /**
+     * Callback for a click on a pet in the list.
+     */
+    public interface OnPetClickListener {
+
+        /**
+         * Called when the pet with the given ID was clicked on.
+         */
+        void onPetClick(long id);
+    }
+
+    /** Told about clicks on the pets */
+    private final OnPetClickListener mListener;
+
+    /** Handler of the main thread, where the differences are applied */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** Pets shown, or null if there are none yet */
+    private PetPagedList mList;
+
+    /** Number of the lists submitted, so that only the last one is shown */
+    private int mSubmitCount;
+
+    /**
+     * Constructs a new {@link PetListAdapter}.
+     *
+     * @param listener told about clicks on the pets
+     */
+    public PetListAdapter(OnPetClickListener listener) {
+        mListener = listener;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Shows the given list instead of the current one, working out how the rows changed on a
+     * background thread, and runs the given callback once it is shown.
+     *
+     * @param list           the pets to show, or null to show none
+     * @param commitCallback run once the list is shown, or null
+     */
+    public void submitList(final PetPagedList list, final Runnable commitCallback) {
+        final int submitCount = ++mSubmitCount;
+        final PetPagedList previous = mList;
+        if (list == previous) {
+            if (commitCallback != null) {
+                commitCallback.run();
+            }
+            return;
+        }
+
+        // Without a list to compare with, or if the current list doesn't have all the pets
+        // the new one loaded, every row is replaced
+        final int start = list != null ? list.getInitialStart() : 0;
+        final int end = list != null ? list.getInitialEnd() : 0;
+        final int shift = list != null ? list.getShift() : 0;
+        final int previousStart = start - shift;
+        final int previousEnd = previous != null ? Math.min(end - shift, previous.size()) : 0;
+        if (previous == null || list == null || previousStart < 0
+                || previousStart > previousEnd || !previous.isLoaded(previousStart, previousEnd)) {
+            setList(list);
+            notifyDataSetChanged();
+            if (commitCallback != null) {
+                commitCallback.run();
+            }
+            return;
+        }
+
+        final List<Pet> oldPets = previous.getRange(previousStart, previousEnd);
+        final List<Pet> newPets = list.getRange(start, end);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(
+                        new PetDiffCallback(oldPets, newPets), false);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (submitCount == mSubmitCount) {
+                            setList(list);
+                            dispatchUpdates(result, previous.size(), list.size(), start,
+                                    previousStart, previousEnd, end);
+                            if (commitCallback != null) {
+                                commitCallback.run();
+                            }
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Shows the given list, and stops the current one from loading pages.
+     */
+    private void setList(PetPagedList list) {
+        if (mList != null) {
+            mList.setCallback(null);
+        }
+        mList = list;
+        if (list != null) {
+            list.setCallback(this);
+        }
+    }
+
+    /**
+     * Tells the view how the rows changed from the old list to the new one: the rows added or
+     * removed right before the pets compared, the differences between those pets, which are at
+     * the positions from the old or new start up to the old or new end, then the rows added or
+     * removed at the end of the list, and finally the other rows, which are rebound so they
+     * read the new list.
+     */
+    private void dispatchUpdates(DiffUtil.DiffResult result, int oldSize, int newSize,
+                                 final int start, int oldStart, int oldEnd, int newEnd) {
+        if (start > oldStart) {
+            notifyItemRangeInserted(oldStart, start - oldStart);
+        } else if (start < oldStart) {
+            notifyItemRangeRemoved(start, oldStart - start);
+        }
+        result.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                notifyItemRangeInserted(start + position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                notifyItemRangeRemoved(start + position, count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                notifyItemMoved(start + fromPosition, start + toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                notifyItemRangeChanged(start + position, count, payload);
+            }
+        });
+
+        int oldTail = oldSize - oldEnd;
+        int newTail = newSize - newEnd;
+        if (newTail > oldTail) {
+            notifyItemRangeInserted(newEnd + oldTail, newTail - oldTail);
+        } else if (newTail < oldTail) {
+            notifyItemRangeRemoved(newEnd + newTail, oldTail - newTail);
+        }
+        notifyItemRangeChanged(0, start);
+        notifyItemRangeChanged(newEnd, Math.min(oldTail, newTail));
+    }
+
+    @Override
+    public void onPetsLoaded(int start, int count) {
+        notifyItemRangeChanged(start, count);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mList != null ? mList.size() : 0;
+    }
+
+    /**
+     * Returns the ID of the pet at the given position, or if its page isn't loaded, a negative
+     * ID unique to the position.
+     */
+    @Override
+    public long getItemId(int position) {
+        Pet pet = mList.get(position);
+        return pet != null ? pet.id : RecyclerView.NO_ID - 1 - position;
+    }
+
+    /**
+     * Makes a new blank list item view, using the layout specified in list_item.xml, and a
+     * holder for it. No data is set (or bound) to the views yet.
+     */
+    @NonNull
+    @Override
+    public PetViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_item, parent, false);
+        return new PetViewHolder(view);
+    }
+
+    /**
+     * Binds the pet at the given position to the given holder: the name for the pet is set on
+     * the name TextView in the list item layout, and its breed on the summary TextView. The row
+     * is left blank if the pet isn't loaded yet.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull PetViewHolder holder, int position) {
+        mList.loadAround(position);
+        Pet pet = mList.get(position);
+        holder.mNameTextView.setText(pet != null ? pet.name : null);
+        holder.mSummaryTextView.setText(pet != null ? pet.breed : null);
+    }
+
+    /**
+     * Compares the pets at the same positions of two lists by ID, and their contents by what a
+     * list item shows.
+     */
+    private static final class PetDiffCallback extends DiffUtil.Callback {
+
+        private final List<Pet> mOldPets;
+        private final List<Pet> mNewPets;
+
+        PetDiffCallback(List<Pet> oldPets, List<Pet> newPets) {
+            mOldPets = oldPets;
+            mNewPets = newPets;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldPets.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewPets.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            Pet oldPet = mOldPets.get(oldPosition);
+            Pet newPet = mNewPets.get(newPosition);
+            return oldPet != null && newPet != null && oldPet.id == newPet.id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            Pet oldPet = mOldPets.get(oldPosition);
+            Pet newPet = mNewPets.get(newPosition);
+            return TextUtils.equals(oldPet.name, newPet.name)
+                    && TextUtils.equals(oldPet.breed, newPet.breed);
+        }
+    }
+
+    /**
+     * Holds the views of a list item, found once when the item is created, along with its
+     * click listeners.
+     */
+    class PetViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final TextView mNameTextView;
+        final TextView mSummaryTextView;
+        final TextView mChecker;
+
+        PetViewHolder(View view) {
+            super(view);
+            mNameTextView = (TextView) view.findViewById(R.id.name);
+            mSummaryTextView = (TextView) view.findViewById(R.id.summary);
+            mChecker = (TextView) view.findViewById(R.id.checker);
+            view.setOnClickListener(this);
+            mChecker.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            if (view == mChecker) {
+                if (TextUtils.equals(mChecker.getText(), "bin")) {
+                    mChecker.setText("Noobda");
+                } else {
+                    mChecker.setText("bin");
+                }
+                return;
+            }
+            // The pet may have been removed since, while the list was animating, or not be
+            // loaded yet
+            int position = getBindingAdapterPosition();
+            if (position != RecyclerView.NO_POSITION && mList.get(position) != null) {
+                mListener.onPetClick(getItemId());
+            }
+        }
+    }
+}
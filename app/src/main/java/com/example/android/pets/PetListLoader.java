@@ -0,0 +1,201 @@
+package com.example.android.pets;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.os.AsyncTask;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.OperationCanceledException;
+
+import com.example.android.pets.data.PetCatalogSnapshot;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetStore;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Loads the list of pets on a background thread as a {@link PetPagedList}, and loads a new one
+ * whenever a pet changes.
+ *
+ * Only the number of pets and the pages around the position being shown are read up front, so
+ * the first screen shows as soon as its page is read however many pets there are; the list loads
+ * the other pages as it is scrolled. A new list is loaded around the last position shown in the
+ * previous one, seeking from the pets the previous one had loaded there, so the rows on screen
+ * are loaded when it is delivered and the adapter can keep them in place (see
+ * {@link PetListAdapter}).
+ *
+ * Any other view of the pets, filtered by gender or sorted by another column (see
+ * {@link #setView}), is filtered from a {@link PetCatalogSnapshot} instead, read the first time
+ * such a view is asked for and kept by the loader. Changing the view then doesn't touch the
+ * database, and when the pets change, the snapshot only reads the pets that changed before the
+ * next list is filtered from it.
+ */
+public class PetListLoader extends AsyncTaskLoader<PetPagedList> {
+
+    /** Marks the snapshot stale and forces a reload when the pets change */
+    private final ContentObserver mObserver = new ContentObserver(new Handler()) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mSnapshotStale.set(true);
+            onContentChanged();
+        }
+    };
+
+    /** Whether the pets changed since {@link #mSnapshot} was read or last updated */
+    private final AtomicBoolean mSnapshotStale = new AtomicBoolean();
+
+    private final int mPageSize;
+    private final int mPrefetchDistance;
+
+    /** List last delivered */
+    private PetPagedList mList;
+
+    /** Gender of the pets shown, or {@link PetStore#ANY_GENDER} */
+    private int mGender = PetStore.ANY_GENDER;
+
+    /** Column of {@link PetEntry} the pets are shown in the order of */
+    private String mSortColumn = PetEntry._ID;
+
+    /**
+     * Pets the views other than every pet in ID order are filtered from, or null until one is
+     * asked for. Only used by {@link #loadInBackground}, which doesn't run twice at once.
+     */
+    private volatile PetCatalogSnapshot mSnapshot;
+
+    /** Whether {@link #mObserver} is registered */
+    private boolean mObserving;
+
+    /** Cancels the load in progress, if any */
+    private CancellationSignal mCancellationSignal;
+
+    /**
+     * @param pageSize         number of pets read at a time
+     * @param prefetchDistance number of pets before and after the position being shown that are
+     *                         loaded ahead of time
+     */
+    public PetListLoader(Context context, int pageSize, int prefetchDistance) {
+        super(context);
+        mPageSize = pageSize;
+        mPrefetchDistance = prefetchDistance;
+    }
+
+    /**
+     * Shows the pets of the given gender, or of any gender for {@link PetStore#ANY_GENDER}, in
+     * the order of the given column of {@link PetEntry}, loading a new list.
+     */
+    public void setView(int gender, String sortColumn) {
+        synchronized (this) {
+            mGender = gender;
+            mSortColumn = sortColumn;
+        }
+        onContentChanged();
+    }
+
+    @Override
+    public PetPagedList loadInBackground() {
+        PetPagedList previous;
+        int gender;
+        String sortColumn;
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            mCancellationSignal = new CancellationSignal();
+            previous = mList;
+            gender = mGender;
+            sortColumn = mSortColumn;
+        }
+        try {
+            if (gender != PetStore.ANY_GENDER || !PetEntry._ID.equals(sortColumn)) {
+                return PetPagedList.of(getSnapshot().filter(gender, Integer.MIN_VALUE,
+                        Integer.MAX_VALUE, sortColumn, false), mPageSize, previous);
+            }
+            return PetPagedList.load(getContext().getContentResolver(),
+                    AsyncTask.SERIAL_EXECUTOR, mPageSize, mPrefetchDistance, previous,
+                    mCancellationSignal);
+        } finally {
+            synchronized (this) {
+                mCancellationSignal = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the snapshot of the pets, reading it if there is none yet, or else applying the
+     * changes to the pets since it was last read or updated.
+     */
+    private PetCatalogSnapshot getSnapshot() {
+        PetCatalogSnapshot snapshot = mSnapshot;
+        if (snapshot == null) {
+            mSnapshotStale.set(false);
+            snapshot = PetCatalogSnapshot.load(getContext().getContentResolver());
+            mSnapshot = snapshot;
+        } else if (mSnapshotStale.getAndSet(false)) {
+            snapshot.update(getContext().getContentResolver());
+        }
+        return snapshot;
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+        synchronized (this) {
+            if (mCancellationSignal != null) {
+                mCancellationSignal.cancel();
+            }
+        }
+    }
+
+    @Override
+    public void deliverResult(PetPagedList list) {
+        if (isReset()) {
+            return;
+        }
+        synchronized (this) {
+            mList = list;
+        }
+        if (isStarted()) {
+            super.deliverResult(list);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            getContext().getContentResolver().registerContentObserver(
+                    PetEntry.CONTENT_URI, true, mObserver);
+            mObserving = true;
+        }
+        if (mList != null) {
+            deliverResult(mList);
+        }
+        if (takeContentChanged() || mList == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+        synchronized (this) {
+            mList = null;
+        }
+        mSnapshot = null;
+    }
+}
@@ -0,0 +1,510 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetCatalogSnapshot;
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The pets, in ID order, loaded a page at a time around the position being shown, or else the
+ * pets of a {@link PetCatalogSnapshot.Selection}, which are all in memory already (see
+ * {@link #of}).
+ *
+ * The number of pets is known up front, so the list always has its full size, but only the pages
+ * near the last position passed to {@link #loadAround} are kept: the pages within the prefetch
+ * distance of it are loaded in the background, and pages more than {@link #DROP_FACTOR} times
+ * that distance away are dropped. {@link #get} returns null for a pet whose page isn't loaded.
+ *
+ * A page is read by seeking the ID index from a loaded pet next to it: after the last pet of the
+ * page before it (see {@link PetEntry#QUERY_PARAM_LIMIT}), or else back from the first pet of
+ * the page after it. Only a page with neither neighbor loaded, after a jump, is found by
+ * skipping its position in the ID index, which costs more the further down it is. A list
+ * doesn't follow later changes to the pets; a new list is loaded around the position of the old
+ * one instead (see {@link PetListLoader}). The change log since the old list was loaded tells
+ * how many pets were added or removed before the pets it had loaded there, so the new list
+ * seeks from those pets and moves the position by as many, keeping the same pets in view with
+ * every pet at its place in the ID order.
+ *
+ * Apart from {@link #load} and {@link #of}, the methods have to be called on the main thread,
+ * and the callback is called on it.
+ */
+public final class PetPagedList {
+
+    /** Pages further than this many prefetch distances from the last position are dropped */
+    public static final int DROP_FACTOR = 3;
+
+    /** Columns read for each pet */
+    private static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    /** Selection of the pets after the one at the position given by the argument */
+    private static final String SELECTION_AFTER_POSITION = PetEntry._ID + " > (SELECT "
+            + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME + " ORDER BY " + PetEntry._ID
+            + " LIMIT 1 OFFSET ?)";
+
+    /**
+     * Selection of the pets before the one with the ID given by the first two arguments, but
+     * after the pet as many pets before it as the third argument (or from the first pet, if
+     * there aren't that many)
+     */
+    private static final String SELECTION_BEFORE_ID = PetEntry._ID + " < ? AND " + PetEntry._ID
+            + " > IFNULL((SELECT " + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME + " WHERE "
+            + PetEntry._ID + " < ? ORDER BY " + PetEntry._ID + " DESC LIMIT 1 OFFSET ?), 0)";
+
+    /**
+     * Selection of the pets from the one as many pets before the pet with the ID given by the
+     * first argument as the second argument on
+     */
+    private static final String SELECTION_FROM_BEFORE_ID = PetEntry._ID + " > IFNULL((SELECT "
+            + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME + " WHERE " + PetEntry._ID
+            + " < ? ORDER BY " + PetEntry._ID + " DESC LIMIT 1 OFFSET ?), 0)";
+
+    /**
+     * Callback for the pages of a list as they are loaded.
+     */
+    public interface Callback {
+
+        /**
+         * Called when the pets at the given positions were loaded.
+         */
+        void onPetsLoaded(int start, int count);
+    }
+
+    private final ContentResolver mResolver;
+
+    /** Executor the pages are loaded on */
+    private final Executor mExecutor;
+
+    /** Handler of the main thread, where the loaded pages are stored */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final int mPageSize;
+    private final int mPrefetchDistance;
+
+    /** Number of pets */
+    private final int mSize;
+
+    /** Pets of the list if they were filtered from a snapshot, or null if they are read by page */
+    private final PetCatalogSnapshot.Selection mSelection;
+
+    /**
+     * Pets of each page, or null if the page isn't loaded. The next list reads the pages from
+     * its loading thread.
+     */
+    private final AtomicReferenceArray<Pet[]> mPages;
+
+    /** Whether each page is being loaded */
+    private final boolean[] mLoading;
+
+    /** Positions of the pets loaded by {@link #load}, from the start up to the end (excluded) */
+    private int mInitialStart;
+    private int mInitialEnd;
+
+    /**
+     * Sequence number of the last change to the pets when the list was loaded, or -1 if it
+     * isn't read from the provider
+     */
+    private long mSequence = -1;
+
+    /**
+     * Number of pets added less the number removed before the pets loaded by {@link #load},
+     * since the previous list was loaded
+     */
+    private int mShift;
+
+    /** Position last passed to {@link #loadAround} */
+    private volatile int mLastPosition;
+
+    /** Told about the loaded pages, or null once the list isn't shown anymore */
+    private Callback mCallback;
+
+    private PetPagedList(ContentResolver resolver, Executor executor, int pageSize,
+                         int prefetchDistance, int size, PetCatalogSnapshot.Selection selection) {
+        mResolver = resolver;
+        mExecutor = executor;
+        mPageSize = pageSize;
+        mPrefetchDistance = prefetchDistance;
+        mSize = size;
+        mSelection = selection;
+        int pageCount = (size + pageSize - 1) / pageSize;
+        mPages = new AtomicReferenceArray<>(pageCount);
+        mLoading = new boolean[pageCount];
+    }
+
+    /**
+     * Loads the number of pets and the pages within the prefetch distance of the last position
+     * of the previous list (moved into the list if it is past its end), before returning the
+     * list. If the previous list had loaded the pet at the start of those pages, and the change
+     * log still has every change since it was loaded, the position is moved by the number of
+     * pets added or removed before that pet, and the pages are read from it. Otherwise the
+     * position is kept and the pages are read from there. Called on a background thread.
+     *
+     * @param executor         executor the other pages are loaded on
+     * @param pageSize         number of pets in a page
+     * @param prefetchDistance number of pets before and after the position being shown whose
+     *                         pages are loaded ahead of time
+     * @param previous         list shown until now, or null to load the pets from the start
+     * @param signal           cancels the loading, or null
+     */
+    public static PetPagedList load(ContentResolver resolver, Executor executor, int pageSize,
+                                    int prefetchDistance, PetPagedList previous,
+                                    CancellationSignal signal) {
+        // The pet the previous list had at the start of the pages around its position. A
+        // selection is in another order, so only its position is kept.
+        int previousPosition = previous != null ? previous.getLastPosition() : 0;
+        int anchorPosition = previous != null
+                ? previous.firstPageAround(previousPosition) * previous.mPageSize : 0;
+        Pet anchor = previous != null && previous.mSequence != -1
+                && anchorPosition < previous.size() ? previous.get(anchorPosition) : null;
+
+        long since = anchor != null ? previous.mSequence : 0;
+        long[] changes = queryChanges(resolver, since, anchor != null ? anchor.id : 0, signal);
+        PetPagedList list = new PetPagedList(resolver, executor, pageSize, prefetchDistance,
+                querySize(resolver, signal), null);
+        list.mSequence = changes[1] != -1 ? changes[1] : since;
+        if (list.mSize == 0) {
+            return list;
+        }
+        // Without the changes right after the previous list was loaded, some were compacted
+        // away, and the pets before the anchor can't be counted
+        if (anchor != null && changes[0] != -1 && changes[0] != since + 1) {
+            anchor = null;
+        }
+
+        int position;
+        int firstPage;
+        int skip = 0;
+        if (anchor != null) {
+            // The anchor, or the pet after it if it was removed, is now at its previous
+            // position moved by the pets added or removed before it; the pages are read from
+            // the pet the right number of pets before it
+            int shift = (int) changes[2];
+            list.mShift = shift;
+            int rank = Math.max(0, Math.min(anchorPosition + shift, list.mSize));
+            position = Math.max(0, Math.min(previousPosition + shift, list.mSize - 1));
+            firstPage = Math.min(list.firstPageAround(position), rank / pageSize);
+            skip = rank - firstPage * pageSize;
+        } else {
+            position = Math.min(previousPosition, list.mSize - 1);
+            firstPage = list.firstPageAround(position);
+        }
+        list.mLastPosition = position;
+        int lastPage = list.lastPageAround(position);
+
+        long afterId = -1;
+        for (int page = firstPage; page <= lastPage; page++) {
+            Pet[] pets;
+            if (page == firstPage && anchor != null) {
+                pets = list.queryPets(PetEntry.buildFirstPageUri(PetEntry._ID, pageSize),
+                        SELECTION_FROM_BEFORE_ID, new String[] { String.valueOf(anchor.id),
+                                String.valueOf(skip) }, signal);
+            } else {
+                pets = list.queryPage(page, afterId, -1, signal);
+            }
+            list.mPages.set(page, pets);
+            afterId = pets.length > 0 ? pets[pets.length - 1].id : -1;
+        }
+        list.mInitialStart = Math.min(firstPage * pageSize, list.mSize);
+        list.mInitialEnd = Math.min((lastPage + 1) * pageSize, list.mSize);
+        return list;
+    }
+
+    /**
+     * Returns a list of the pets of the given selection, around the last position of the
+     * previous list (moved into the list if it is past its end). The pets are only made into
+     * {@link Pet}s as they are asked for, and no page is ever read from the provider.
+     *
+     * @param pageSize number of pets in a page; the pages within a page of the position are
+     *                 compared with the previous list when it is shown (see
+     *                 {@link PetListAdapter})
+     * @param previous list shown until now, or null to start at the first pet
+     */
+    public static PetPagedList of(PetCatalogSnapshot.Selection selection, int pageSize,
+                                  PetPagedList previous) {
+        PetPagedList list = new PetPagedList(null, null, pageSize, pageSize, selection.size(),
+                selection);
+        if (list.mSize == 0) {
+            return list;
+        }
+        int position = previous != null ? Math.min(previous.getLastPosition(), list.mSize - 1) : 0;
+        list.mLastPosition = position;
+        list.mInitialStart = list.firstPageAround(position) * pageSize;
+        list.mInitialEnd = Math.min((list.lastPageAround(position) + 1) * pageSize, list.mSize);
+        return list;
+    }
+
+    /**
+     * Returns the number of pets, read from the pet stats rather than by counting them.
+     */
+    private static int querySize(ContentResolver resolver, CancellationSignal signal) {
+        Cursor cursor = resolver.query(PetStatsEntry.CONTENT_URI,
+                new String[] { PetStatsEntry.COLUMN_PET_COUNT }, null, null, null, signal);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the first and last sequence numbers of the changes to the pets after the given
+     * one, or -1 for both if there are none, and the number of pets added less the number
+     * removed by those changes among the pets with an ID below the given one.
+     */
+    private static long[] queryChanges(ContentResolver resolver, long since, long beforeId,
+                                       CancellationSignal signal) {
+        String[] projection = {
+                "MIN(" + PetChangeEntry.COLUMN_SEQUENCE + ")",
+                "MAX(" + PetChangeEntry.COLUMN_SEQUENCE + ")",
+                "TOTAL(CASE WHEN " + PetChangeEntry.COLUMN_PET_ID + " < " + beforeId + " THEN ("
+                        + PetChangeEntry.COLUMN_OPERATION + " = "
+                        + PetChangeEntry.OPERATION_INSERT + ") - ("
+                        + PetChangeEntry.COLUMN_OPERATION + " = "
+                        + PetChangeEntry.OPERATION_DELETE + ") END)" };
+        long[] changes = { -1, -1, 0 };
+        Cursor cursor = resolver.query(PetChangeEntry.buildChangesSinceUri(since), projection,
+                null, null, null, signal);
+        if (cursor == null) {
+            return changes;
+        }
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                changes[0] = cursor.getLong(0);
+                changes[1] = cursor.getLong(1);
+                changes[2] = cursor.getLong(2);
+            }
+            return changes;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads the pets of the given page: after the pet with the given ID if it isn't -1, or else
+     * from the first pet for the first page, or else up to the pet with the given ID if that one
+     * isn't -1, or else after the pet at the position before the page. Called on a background
+     * thread.
+     */
+    private Pet[] queryPage(int page, long afterId, long beforeId, CancellationSignal signal) {
+        Uri uri = PetEntry.buildFirstPageUri(PetEntry._ID, mPageSize);
+        String selection = null;
+        String[] selectionArgs = null;
+        if (afterId != -1) {
+            uri = PetEntry.buildNextPageUri(uri, String.valueOf(afterId), afterId);
+        } else if (page > 0 && beforeId != -1) {
+            selection = SELECTION_BEFORE_ID;
+            selectionArgs = new String[] { String.valueOf(beforeId), String.valueOf(beforeId),
+                    String.valueOf(mPageSize) };
+        } else if (page > 0) {
+            selection = SELECTION_AFTER_POSITION;
+            selectionArgs = new String[] { String.valueOf(page * mPageSize - 1) };
+        }
+        return queryPets(uri, selection, selectionArgs, signal);
+    }
+
+    /**
+     * Reads the pets of the given page URI with the given selection. Called on a background
+     * thread.
+     */
+    private Pet[] queryPets(Uri uri, String selection, String[] selectionArgs,
+                            CancellationSignal signal) {
+        Cursor cursor = mResolver.query(uri, PROJECTION, selection, selectionArgs, null, signal);
+        if (cursor == null) {
+            return new Pet[0];
+        }
+        try {
+            // Look the columns up once rather than per row
+            int idColumnIndex = cursor.getColumnIndexOrThrow(PetEntry._ID);
+            int nameColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+            int breedColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED);
+            int genderColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_GENDER);
+            int weightColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_WEIGHT);
+
+            Pet[] pets = new Pet[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                pets[i] = new Pet(cursor.getLong(idColumnIndex),
+                        cursor.getString(nameColumnIndex),
+                        cursor.getString(breedColumnIndex),
+                        cursor.getInt(genderColumnIndex),
+                        cursor.getInt(weightColumnIndex));
+            }
+            return pets;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Returns the first page within the prefetch distance of the given position */
+    private int firstPageAround(int position) {
+        return Math.max(0, position - mPrefetchDistance) / mPageSize;
+    }
+
+    /** Returns the last page within the prefetch distance of the given position */
+    private int lastPageAround(int position) {
+        return Math.min(mSize - 1, position + mPrefetchDistance) / mPageSize;
+    }
+
+    /** Returns whether the given page is far enough from the last position to be dropped */
+    private boolean isFar(int page) {
+        int dropDistance = DROP_FACTOR * mPrefetchDistance;
+        return page < Math.max(0, mLastPosition - dropDistance) / mPageSize
+                || page > Math.min(mSize - 1, mLastPosition + dropDistance) / mPageSize;
+    }
+
+    /**
+     * Returns the number of pets.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the pet at the given position, or null if its page isn't loaded.
+     */
+    public Pet get(int position) {
+        if (mSelection != null) {
+            return new Pet(mSelection.getId(position), mSelection.getName(position),
+                    mSelection.getBreed(position), mSelection.getGender(position),
+                    mSelection.getWeight(position));
+        }
+        Pet[] pets = mPages.get(position / mPageSize);
+        int index = position % mPageSize;
+        return pets != null && index < pets.length ? pets[index] : null;
+    }
+
+    /**
+     * Returns whether the pets at the given positions, from the start up to the end (excluded),
+     * are all loaded.
+     */
+    boolean isLoaded(int start, int end) {
+        for (int position = start; position < end; position++) {
+            if (get(position) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the pets at the given positions, from the start up to the end (excluded), with
+     * nulls for the pets that aren't loaded.
+     */
+    List<Pet> getRange(int start, int end) {
+        List<Pet> pets = new ArrayList<>(end - start);
+        for (int position = start; position < end; position++) {
+            pets.add(get(position));
+        }
+        return pets;
+    }
+
+    /** Returns the position of the first pet loaded by {@link #load} */
+    int getInitialStart() {
+        return mInitialStart;
+    }
+
+    /** Returns the position after the last pet loaded by {@link #load} */
+    int getInitialEnd() {
+        return mInitialEnd;
+    }
+
+    /**
+     * Returns the number of pets added less the number removed before the pets loaded by
+     * {@link #load}, since the previous list was loaded: the pets at the positions from the
+     * initial start to the initial end were that many positions earlier in the previous list.
+     */
+    int getShift() {
+        return mShift;
+    }
+
+    /**
+     * Returns the position last passed to {@link #loadAround}, or the position the list was
+     * loaded around if there was none.
+     */
+    public int getLastPosition() {
+        return mLastPosition;
+    }
+
+    /**
+     * Sets the callback told about the pages loaded from now on, or null to stop loading pages.
+     */
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Starts loading the pages within the prefetch distance of the given position that aren't
+     * loaded yet, and drops the pages far from it.
+     */
+    public void loadAround(int position) {
+        boolean pageChanged = position / mPageSize != mLastPosition / mPageSize;
+        mLastPosition = position;
+        if (mCallback == null || mSelection != null) {
+            return;
+        }
+        int lastPage = lastPageAround(position);
+        for (int page = firstPageAround(position); page <= lastPage; page++) {
+            if (mPages.get(page) == null && !mLoading[page]) {
+                startLoading(page);
+            }
+        }
+        // Which pages are far only changes when the position moves to another page
+        if (pageChanged) {
+            for (int page = 0; page < mPages.length(); page++) {
+                if (mPages.get(page) != null && isFar(page)) {
+                    mPages.set(page, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the given page in the background, then stores it and tells the callback unless the
+     * list has stopped loading pages or the page is no longer wanted.
+     */
+    private void startLoading(final int page) {
+        mLoading[page] = true;
+        Pet[] previous = page > 0 ? mPages.get(page - 1) : null;
+        final long afterId = previous != null && previous.length > 0
+                ? previous[previous.length - 1].id : -1;
+        Pet[] next = page < mPages.length() - 1 ? mPages.get(page + 1) : null;
+        final long beforeId = next != null && next.length > 0 ? next[0].id : -1;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Pet[] pets = queryPage(page, afterId, beforeId, null);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mLoading[page] = false;
+                        if (mCallback == null || isFar(page)) {
+                            return;
+                        }
+                        mPages.set(page, pets);
+                        int start = page * mPageSize;
+                        mCallback.onPetsLoaded(start, Math.min(mPageSize, mSize - start));
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.android.pets.data;
+
+import java.util.Arrays;
+
+/**
+ * {@link PetStore} that keeps the pets in memory, one primitive array per column.
+ *
+ * Pets are appended in ID order, so a pet is found by a binary search over the IDs and a scan
+ * walks the arrays in order. A deleted pet is only marked as removed, and the arrays are
+ * compacted once half of their slots are removed pets.
+ *
+ * The store isn't thread-safe, callers have to synchronize their own access.
+ */
+public final class InMemoryPetStore implements PetStore {
+
+    /** Initial number of slots in the arrays */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The columns of the pets, one slot per pet in ID order */
+    private long[] mIds = new long[INITIAL_CAPACITY];
+    private String[] mNames = new String[INITIAL_CAPACITY];
+    private String[] mBreeds = new String[INITIAL_CAPACITY];
+    private byte[] mGenders = new byte[INITIAL_CAPACITY];
+    private int[] mWeights = new int[INITIAL_CAPACITY];
+    private boolean[] mRemoved = new boolean[INITIAL_CAPACITY];
+
+    /** Number of slots in use, including removed pets */
+    private int mSlotCount;
+
+    /** Number of slots holding removed pets */
+    private int mRemovedCount;
+
+    /** ID of the last pet inserted */
+    private long mLastId;
+
+    @Override
+    public long insert(String name, String breed, int gender, int weight) {
+        PetValidation.checkNewPet(name, gender, weight);
+
+        if (mSlotCount == mIds.length) {
+            int capacity = mIds.length * 2;
+            mIds = Arrays.copyOf(mIds, capacity);
+            mNames = Arrays.copyOf(mNames, capacity);
+            mBreeds = Arrays.copyOf(mBreeds, capacity);
+            mGenders = Arrays.copyOf(mGenders, capacity);
+            mWeights = Arrays.copyOf(mWeights, capacity);
+            mRemoved = Arrays.copyOf(mRemoved, capacity);
+        }
+
+        int slot = mSlotCount++;
+        mIds[slot] = ++mLastId;
+        mNames[slot] = name;
+        mBreeds[slot] = breed;
+        mGenders[slot] = (byte) gender;
+        mWeights[slot] = weight;
+        mRemoved[slot] = false;
+        return mLastId;
+    }
+
+    @Override
+    public boolean update(long id, String name, String breed, int gender, int weight) {
+        PetValidation.checkNewPet(name, gender, weight);
+
+        int slot = find(id);
+        if (slot < 0) {
+            return false;
+        }
+        mNames[slot] = name;
+        mBreeds[slot] = breed;
+        mGenders[slot] = (byte) gender;
+        mWeights[slot] = weight;
+        return true;
+    }
+
+    @Override
+    public boolean delete(long id) {
+        int slot = find(id);
+        if (slot < 0) {
+            return false;
+        }
+        mRemoved[slot] = true;
+        mNames[slot] = null;
+        mBreeds[slot] = null;
+        mRemovedCount++;
+        if (mRemovedCount > mSlotCount / 2) {
+            compact();
+        }
+        return true;
+    }
+
+    @Override
+    public Pet get(long id) {
+        int slot = find(id);
+        if (slot < 0) {
+            return null;
+        }
+        return new Pet(id, mNames[slot], mBreeds[slot], mGenders[slot], mWeights[slot]);
+    }
+
+    @Override
+    public int scan(int gender, int minWeight, int maxWeight, long afterId, int limit,
+                    Visitor visitor) {
+        // Start at the first slot with an ID greater than the given one
+        int slot = Arrays.binarySearch(mIds, 0, mSlotCount, afterId);
+        slot = slot < 0 ? -slot - 1 : slot + 1;
+
+        int visited = 0;
+        for (; slot < mSlotCount && visited < limit; slot++) {
+            if (mRemoved[slot]
+                    || (gender != ANY_GENDER && mGenders[slot] != gender)
+                    || mWeights[slot] < minWeight || mWeights[slot] > maxWeight) {
+                continue;
+            }
+            visitor.visit(mIds[slot], mNames[slot], mBreeds[slot], mGenders[slot],
+                    mWeights[slot]);
+            visited++;
+        }
+        return visited;
+    }
+
+    @Override
+    public int size() {
+        return mSlotCount - mRemovedCount;
+    }
+
+    /**
+     * Returns the slot of the pet with the given ID, or -1 if there is no such pet.
+     */
+    private int find(long id) {
+        int slot = Arrays.binarySearch(mIds, 0, mSlotCount, id);
+        return slot >= 0 && !mRemoved[slot] ? slot : -1;
+    }
+
+    /**
+     * Move the remaining pets over the slots of removed pets, keeping them in ID order.
+     */
+    private void compact() {
+        int to = 0;
+        for (int from = 0; from < mSlotCount; from++) {
+            if (mRemoved[from]) {
+                continue;
+            }
+            mIds[to] = mIds[from];
+            mNames[to] = mNames[from];
+            mBreeds[to] = mBreeds[from];
+            mGenders[to] = mGenders[from];
+            mWeights[to] = mWeights[from];
+            mRemoved[to] = false;
+            to++;
+        }
+        Arrays.fill(mNames, to, mSlotCount, null);
+        Arrays.fill(mBreeds, to, mSlotCount, null);
+        mSlotCount = to;
+        mRemovedCount = 0;
+    }
+}
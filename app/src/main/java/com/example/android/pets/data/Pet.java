@@ -0,0 +1,21 @@
+package com.example.android.pets.data;
+
+/**
+ * A single pet, as returned by {@link PetStore#get}.
+ */
+public final class Pet {
+
+    public final long id;
+    public final String name;
+    public final String breed;
+    public final int gender;
+    public final int weight;
+
+    public Pet(long id, String name, String breed, int gender, int weight) {
+        this.id = id;
+        this.name = name;
+        this.breed = breed;
+        this.gender = gender;
+        this.weight = weight;
+    }
+}
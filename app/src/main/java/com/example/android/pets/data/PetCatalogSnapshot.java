@@ -0,0 +1,672 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copy of the pets table kept in memory by column, so the catalog can be filtered by gender
+ * and weight and sorted by any column without querying the provider.
+ *
+ * Each column is a primitive array with one slot per pet, in ID order: IDs and weights as
+ * ints, genders as bytes, and names and breeds as codes into a dictionary of their distinct
+ * values. The order of the slots by a column is worked out the first time it is asked for, by
+ * sorting the (key, slot) pairs packed into longs, so a filter is a single pass over the arrays
+ * in any order. Names are compared case-insensitively for ASCII letters, like the paged queries
+ * of {@link PetProvider}, and a missing breed comes first.
+ *
+ * The snapshot is read from the provider with {@link #load}, and {@link #update} applies what
+ * changed since, reading the change log (see {@link PetChangeEntry}) and then only the pets
+ * that changed. Each changed pet is moved within the orders worked out so far by a binary
+ * search, rather than sorting them again; only when more pets changed than a sort would cost
+ * (about the logarithm of the number of pets) are the orders dropped to be sorted again. The
+ * values of the dictionaries aren't removed with the last pet using them, they go on the next
+ * full load.
+ *
+ * Loading and updating query the provider, so they have to be run off the main thread.
+ * Filtering can run on any thread, and its {@link Selection} stays valid as the snapshot
+ * changes.
+ */
+public final class PetCatalogSnapshot {
+
+    /** Number of pets read per page while loading */
+    private static final int LOAD_PAGE_SIZE = 1000;
+
+    /** Number of changed pets read per query, under the SQLite limit of 999 arguments */
+    private static final int UPDATE_CHUNK_SIZE = 500;
+
+    /** Initial number of slots in the arrays */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Columns read from the provider */
+    private static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    /** Columns the pets can be sorted by */
+    private static final String[] SORT_COLUMNS = PROJECTION;
+
+    /** Selects the last entry of the change log */
+    private static final String SELECTION_LAST_CHANGE = PetChangeEntry.COLUMN_SEQUENCE
+            + " = (SELECT MAX(" + PetChangeEntry.COLUMN_SEQUENCE + ") FROM "
+            + PetChangeEntry.TABLE_NAME + ")";
+
+    /** Held by {@link #update} for its whole run, so updates apply in the order they read */
+    private final Object mUpdateLock = new Object();
+
+    /** The columns of the pets, one slot per pet in ID order */
+    private int[] mIds = new int[INITIAL_CAPACITY];
+    private int[] mNameCodes = new int[INITIAL_CAPACITY];
+    private int[] mBreedCodes = new int[INITIAL_CAPACITY];
+    private byte[] mGenders = new byte[INITIAL_CAPACITY];
+    private int[] mWeights = new int[INITIAL_CAPACITY];
+
+    /** Number of pets */
+    private int mCount;
+
+    /** Distinct names and breeds */
+    private Dictionary mNames = new Dictionary(true);
+    private Dictionary mBreeds = new Dictionary(false);
+
+    /**
+     * Slots in order of each sort column, or null until asked for. Each has as many slots as
+     * the columns, of which the first {@link #mCount} are in use.
+     */
+    private final int[][] mOrders = new int[SORT_COLUMNS.length][];
+
+    /** Slots matched by the current {@link #filter}, kept between filters */
+    private int[] mMatches = new int[0];
+
+    /** Sequence number of the last change applied */
+    private long mSequence;
+
+    private PetCatalogSnapshot() {
+    }
+
+    /**
+     * Distinct values of a text column, each with a code: its index in order of first use.
+     * Values are only appended, so the values array handed out by {@link #getValues} never
+     * changes in the slots that were already in use.
+     */
+    private static final class Dictionary {
+        private final boolean mNoCase;
+        private final Map<String, Integer> mCodes = new HashMap<>();
+        private String[] mValues = new String[INITIAL_CAPACITY];
+        private int mSize;
+
+        /** Rank of each code in order of its value, as of when the dictionary had mRankedSize */
+        private int[] mRanks;
+        private int mRankedSize;
+
+        Dictionary(boolean noCase) {
+            mNoCase = noCase;
+        }
+
+        /**
+         * Returns the code of the given value, adding it if it is new, or -1 for null.
+         */
+        int encode(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer code = mCodes.get(value);
+            if (code != null) {
+                return code;
+            }
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize] = value;
+            mCodes.put(value, mSize);
+            return mSize++;
+        }
+
+        String[] getValues() {
+            return mValues;
+        }
+
+        /**
+         * Returns the rank of each code in order of its value, ranking them again if values
+         * were added since the last time. Values that compare equal have the same rank.
+         */
+        int[] getRanks() {
+            if (mRanks == null || mRankedSize != mSize) {
+                Integer[] codes = new Integer[mSize];
+                for (int code = 0; code < mSize; code++) {
+                    codes[code] = code;
+                }
+                Arrays.sort(codes, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer a, Integer b) {
+                        return Dictionary.this.compare(a, b);
+                    }
+                });
+                mRanks = new int[mSize];
+                for (int i = 1; i < mSize; i++) {
+                    mRanks[codes[i]] = compare(codes[i - 1], codes[i]) == 0
+                            ? mRanks[codes[i - 1]] : i;
+                }
+                mRankedSize = mSize;
+            }
+            return mRanks;
+        }
+
+        /**
+         * Compares the values of the given codes, a missing value (code -1) first.
+         */
+        int compare(int a, int b) {
+            if (a == b) {
+                return 0;
+            }
+            if (a < 0 || b < 0) {
+                return a < 0 ? -1 : 1;
+            }
+            return PetMergeCursor.compareText(mValues[a], mValues[b], mNoCase);
+        }
+    }
+
+    /**
+     * The pets that matched a filter, in the order asked for. A selection is a copy, so it
+     * doesn't change when the snapshot is updated.
+     */
+    public static final class Selection {
+        private final int[] mIds;
+        private final int[] mNameCodes;
+        private final int[] mBreedCodes;
+        private final byte[] mGenders;
+        private final int[] mWeights;
+        private final String[] mNames;
+        private final String[] mBreeds;
+
+        private Selection(int count, String[] names, String[] breeds) {
+            mIds = new int[count];
+            mNameCodes = new int[count];
+            mBreedCodes = new int[count];
+            mGenders = new byte[count];
+            mWeights = new int[count];
+            mNames = names;
+            mBreeds = breeds;
+        }
+
+        /**
+         * Returns the number of pets selected.
+         */
+        public int size() {
+            return mIds.length;
+        }
+
+        public int getId(int position) {
+            return mIds[position];
+        }
+
+        public String getName(int position) {
+            return mNames[mNameCodes[position]];
+        }
+
+        /**
+         * Returns the breed of the pet at the given position, or null if it has none.
+         */
+        public String getBreed(int position) {
+            int code = mBreedCodes[position];
+            return code < 0 ? null : mBreeds[code];
+        }
+
+        public int getGender(int position) {
+            return mGenders[position];
+        }
+
+        public int getWeight(int position) {
+            return mWeights[position];
+        }
+    }
+
+    /**
+     * Read every pet from the provider into a new snapshot.
+     */
+    public static PetCatalogSnapshot load(ContentResolver resolver) {
+        PetCatalogSnapshot snapshot = new PetCatalogSnapshot();
+
+        // Changes from here on may or may not be in the pets read; applying them again is safe
+        snapshot.mSequence = readLastSequence(resolver);
+
+        Uri pageUri = PetEntry.buildFirstPageUri(PetEntry._ID, LOAD_PAGE_SIZE);
+        while (true) {
+            Cursor cursor = query(resolver, pageUri, null, null);
+            int lastId;
+            try {
+                if (!cursor.moveToFirst()) {
+                    break;
+                }
+                do {
+                    snapshot.append(cursor);
+                } while (cursor.moveToNext());
+                lastId = snapshot.mIds[snapshot.mCount - 1];
+                if (cursor.getCount() < LOAD_PAGE_SIZE) {
+                    break;
+                }
+            } finally {
+                cursor.close();
+            }
+            pageUri = PetEntry.buildNextPageUri(pageUri, String.valueOf(lastId), lastId);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Apply the changes to the pets since the last load or update. If the change log no longer
+     * goes back that far, or most of the pets changed, read every pet again instead. Return
+     * whether any pet changed.
+     */
+    public boolean update(ContentResolver resolver) {
+        synchronized (mUpdateLock) {
+            long since;
+            synchronized (this) {
+                since = mSequence;
+            }
+
+            // The pets that changed, and the last change
+            Set<Long> changedIds = new HashSet<>();
+            long sequence = since;
+            Cursor changes = query(resolver, PetChangeEntry.buildChangesSinceUri(since),
+                    new String[] { PetChangeEntry.COLUMN_SEQUENCE, PetChangeEntry.COLUMN_PET_ID },
+                    null, null);
+            try {
+                if (!changes.moveToFirst()) {
+                    return false;
+                }
+                if (changes.getLong(0) > since + 1) {
+                    // The changes right after ours were compacted away
+                    reload(resolver);
+                    return true;
+                }
+                do {
+                    sequence = changes.getLong(0);
+                    changedIds.add(changes.getLong(1));
+                } while (changes.moveToNext());
+            } finally {
+                changes.close();
+            }
+            if (changedIds.size() > size() / 2) {
+                reload(resolver);
+                return true;
+            }
+
+            // Read the pets that changed as they are now; the ones not found are gone
+            Long[] ids = changedIds.toArray(new Long[changedIds.size()]);
+            Set<Long> removedIds = new HashSet<>(changedIds);
+            PetCatalogSnapshot changed = new PetCatalogSnapshot();
+            for (int start = 0; start < ids.length; start += UPDATE_CHUNK_SIZE) {
+                int end = Math.min(start + UPDATE_CHUNK_SIZE, ids.length);
+                StringBuilder selection = new StringBuilder(PetEntry._ID).append(" IN (");
+                String[] selectionArgs = new String[end - start];
+                for (int i = start; i < end; i++) {
+                    selection.append(i == start ? "?" : ", ?");
+                    selectionArgs[i - start] = String.valueOf(ids[i]);
+                }
+                selection.append(')');
+                Cursor cursor = query(resolver, PetEntry.CONTENT_URI, selection.toString(),
+                        selectionArgs);
+                try {
+                    while (cursor.moveToNext()) {
+                        removedIds.remove(cursor.getLong(0));
+                        changed.append(cursor);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            synchronized (this) {
+                // Moving a pet in an order shifts the slots after it, so past about as many
+                // pets as a sort compares each slot with, sorting again is cheaper
+                int changedCount = changed.mCount + removedIds.size();
+                if (changedCount > Integer.SIZE - Integer.numberOfLeadingZeros(mCount)) {
+                    Arrays.fill(mOrders, null);
+                }
+                for (int i = 0; i < changed.mCount; i++) {
+                    put(changed.mIds[i], changed.mNames.getValues()[changed.mNameCodes[i]],
+                            changed.mBreedCodes[i] < 0
+                                    ? null : changed.mBreeds.getValues()[changed.mBreedCodes[i]],
+                            changed.mGenders[i], changed.mWeights[i]);
+                }
+                for (Long id : removedIds) {
+                    remove(id);
+                }
+                mSequence = sequence;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns the number of pets.
+     */
+    public synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * Returns the pets that have the given gender (or any gender, for
+     * {@link PetStore#ANY_GENDER}) and a weight between the given minimum and maximum,
+     * inclusive, ordered by the given column of {@link PetEntry} (ties in ID order, or reverse
+     * ID order when descending).
+     */
+    public synchronized Selection filter(int gender, int minWeight, int maxWeight,
+                                         String sortColumn, boolean descending) {
+        int[] order = getOrder(sortColumn);
+
+        // Gather the matching slots in order, then copy their values out
+        if (mMatches.length < mCount) {
+            mMatches = new int[mIds.length];
+        }
+        int matches = 0;
+        for (int i = 0; i < mCount; i++) {
+            int index = descending ? mCount - 1 - i : i;
+            int slot = order == null ? index : order[index];
+            if ((gender == PetStore.ANY_GENDER || mGenders[slot] == gender)
+                    && mWeights[slot] >= minWeight && mWeights[slot] <= maxWeight) {
+                mMatches[matches++] = slot;
+            }
+        }
+
+        Selection selection = new Selection(matches, mNames.getValues(), mBreeds.getValues());
+        for (int position = 0; position < matches; position++) {
+            int slot = mMatches[position];
+            selection.mIds[position] = mIds[slot];
+            selection.mNameCodes[position] = mNameCodes[slot];
+            selection.mBreedCodes[position] = mBreedCodes[slot];
+            selection.mGenders[position] = mGenders[slot];
+            selection.mWeights[position] = mWeights[slot];
+        }
+        return selection;
+    }
+
+    /**
+     * Returns the slots in order of the given column, or null for the ID, which is the order
+     * of the slots themselves.
+     */
+    private int[] getOrder(String sortColumn) {
+        int column = Arrays.asList(SORT_COLUMNS).indexOf(sortColumn);
+        if (column < 0) {
+            throw new IllegalArgumentException("Pets can't be sorted by " + sortColumn);
+        }
+        if (column == 0) {
+            return null;
+        }
+        if (mOrders[column] != null) {
+            return mOrders[column];
+        }
+
+        // Sort the key of every slot in the high half of a long and the slot in the low half,
+        // which orders ties by slot and so by ID
+        int[] keys;
+        String columnName = SORT_COLUMNS[column];
+        if (PetEntry.COLUMN_PET_NAME.equals(columnName)) {
+            keys = rank(mNameCodes, mNames.getRanks());
+        } else if (PetEntry.COLUMN_PET_BREED.equals(columnName)) {
+            keys = rank(mBreedCodes, mBreeds.getRanks());
+        } else if (PetEntry.COLUMN_PET_GENDER.equals(columnName)) {
+            keys = new int[mCount];
+            for (int slot = 0; slot < mCount; slot++) {
+                keys[slot] = mGenders[slot];
+            }
+        } else {
+            keys = mWeights;
+        }
+        long[] packed = new long[mCount];
+        for (int slot = 0; slot < mCount; slot++) {
+            packed[slot] = ((long) keys[slot] << 32) | slot;
+        }
+        Arrays.sort(packed);
+        int[] order = new int[mIds.length];
+        for (int i = 0; i < mCount; i++) {
+            order[i] = (int) packed[i];
+        }
+        mOrders[column] = order;
+        return order;
+    }
+
+    /**
+     * Returns the rank of the value of every slot, given its code and the rank of each code,
+     * ranking a missing value (code -1) first.
+     */
+    private int[] rank(int[] codes, int[] ranks) {
+        int[] keys = new int[mCount];
+        for (int slot = 0; slot < mCount; slot++) {
+            keys[slot] = codes[slot] < 0 ? -1 : ranks[codes[slot]];
+        }
+        return keys;
+    }
+
+    /**
+     * Append the pet at the current row of the given cursor, read with {@link #PROJECTION},
+     * whose ID is greater than that of every pet so far.
+     */
+    private void append(Cursor cursor) {
+        long id = cursor.getLong(0);
+        if (id > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Pet ID " + id + " doesn't fit the snapshot");
+        }
+        ensureCapacity();
+        int slot = mCount++;
+        mIds[slot] = (int) id;
+        mNameCodes[slot] = mNames.encode(cursor.getString(1));
+        mBreedCodes[slot] = mBreeds.encode(cursor.isNull(2) ? null : cursor.getString(2));
+        mGenders[slot] = (byte) cursor.getInt(3);
+        mWeights[slot] = cursor.getInt(4);
+    }
+
+    /**
+     * Store the given values for the pet with the given ID, adding it in its place by ID if it
+     * is new, and move it to its place in the orders worked out so far.
+     */
+    private void put(int id, String name, String breed, int gender, int weight) {
+        int slot = Arrays.binarySearch(mIds, 0, mCount, id);
+        if (slot < 0) {
+            slot = -slot - 1;
+            ensureCapacity();
+            int moved = mCount - slot;
+            System.arraycopy(mIds, slot, mIds, slot + 1, moved);
+            System.arraycopy(mNameCodes, slot, mNameCodes, slot + 1, moved);
+            System.arraycopy(mBreedCodes, slot, mBreedCodes, slot + 1, moved);
+            System.arraycopy(mGenders, slot, mGenders, slot + 1, moved);
+            System.arraycopy(mWeights, slot, mWeights, slot + 1, moved);
+            if (moved > 0) {
+                renumberOrders(slot, 1);
+            }
+            mCount++;
+            mIds[slot] = id;
+        } else {
+            removeFromOrders(slot);
+        }
+        mNameCodes[slot] = mNames.encode(name);
+        mBreedCodes[slot] = mBreeds.encode(breed);
+        mGenders[slot] = (byte) gender;
+        mWeights[slot] = weight;
+        insertIntoOrders(slot);
+    }
+
+    /**
+     * Remove the pet with the given ID, if there is one.
+     */
+    private void remove(long id) {
+        if (id > Integer.MAX_VALUE) {
+            return;
+        }
+        int slot = Arrays.binarySearch(mIds, 0, mCount, (int) id);
+        if (slot < 0) {
+            return;
+        }
+        removeFromOrders(slot);
+        int moved = mCount - slot - 1;
+        System.arraycopy(mIds, slot + 1, mIds, slot, moved);
+        System.arraycopy(mNameCodes, slot + 1, mNameCodes, slot, moved);
+        System.arraycopy(mBreedCodes, slot + 1, mBreedCodes, slot, moved);
+        System.arraycopy(mGenders, slot + 1, mGenders, slot, moved);
+        System.arraycopy(mWeights, slot + 1, mWeights, slot, moved);
+        mCount--;
+        if (moved > 0) {
+            renumberOrders(slot + 1, -1);
+        }
+    }
+
+    /**
+     * Add the given slot, with its values, at its place in each order worked out so far, which
+     * don't have it yet.
+     */
+    private void insertIntoOrders(int slot) {
+        for (int column = 1; column < mOrders.length; column++) {
+            int[] order = mOrders[column];
+            if (order != null) {
+                int index = search(column, order, mCount - 1, slot);
+                System.arraycopy(order, index, order, index + 1, mCount - 1 - index);
+                order[index] = slot;
+            }
+        }
+    }
+
+    /**
+     * Take the given slot, with the values it still has, out of each order worked out so far.
+     */
+    private void removeFromOrders(int slot) {
+        for (int column = 1; column < mOrders.length; column++) {
+            int[] order = mOrders[column];
+            if (order != null) {
+                int index = search(column, order, mCount, slot);
+                System.arraycopy(order, index + 1, order, index, mCount - 1 - index);
+            }
+        }
+    }
+
+    /**
+     * Add the given difference to the slots from the given one on in each order worked out so
+     * far, after the pets in those slots moved.
+     */
+    private void renumberOrders(int fromSlot, int difference) {
+        for (int column = 1; column < mOrders.length; column++) {
+            int[] order = mOrders[column];
+            if (order != null) {
+                for (int i = 0; i < mCount; i++) {
+                    if (order[i] >= fromSlot) {
+                        order[i] += difference;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the given slot among the first slots of the given order, or where it
+     * would go if it isn't there.
+     */
+    private int search(int column, int[] order, int size, int slot) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareSlots(column, order[middle], slot) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares the pets in the given slots by the given sort column, then by slot, in the order
+     * {@link #getOrder} sorts them.
+     */
+    private int compareSlots(int column, int a, int b) {
+        int result;
+        String columnName = SORT_COLUMNS[column];
+        if (PetEntry.COLUMN_PET_NAME.equals(columnName)) {
+            result = mNames.compare(mNameCodes[a], mNameCodes[b]);
+        } else if (PetEntry.COLUMN_PET_BREED.equals(columnName)) {
+            result = mBreeds.compare(mBreedCodes[a], mBreedCodes[b]);
+        } else if (PetEntry.COLUMN_PET_GENDER.equals(columnName)) {
+            result = Integer.compare(mGenders[a], mGenders[b]);
+        } else {
+            result = Integer.compare(mWeights[a], mWeights[b]);
+        }
+        return result != 0 ? result : Integer.compare(a, b);
+    }
+
+    private void ensureCapacity() {
+        if (mCount == mIds.length) {
+            int capacity = mIds.length * 2;
+            mIds = Arrays.copyOf(mIds, capacity);
+            mNameCodes = Arrays.copyOf(mNameCodes, capacity);
+            mBreedCodes = Arrays.copyOf(mBreedCodes, capacity);
+            mGenders = Arrays.copyOf(mGenders, capacity);
+            mWeights = Arrays.copyOf(mWeights, capacity);
+            for (int column = 1; column < mOrders.length; column++) {
+                if (mOrders[column] != null) {
+                    mOrders[column] = Arrays.copyOf(mOrders[column], capacity);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read every pet again, replacing the contents of the snapshot.
+     */
+    private void reload(ContentResolver resolver) {
+        PetCatalogSnapshot loaded = load(resolver);
+        synchronized (this) {
+            mIds = loaded.mIds;
+            mNameCodes = loaded.mNameCodes;
+            mBreedCodes = loaded.mBreedCodes;
+            mGenders = loaded.mGenders;
+            mWeights = loaded.mWeights;
+            mCount = loaded.mCount;
+            mNames = loaded.mNames;
+            mBreeds = loaded.mBreeds;
+            Arrays.fill(mOrders, null);
+            mSequence = loaded.mSequence;
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last entry of the change log, or 0 if it is empty.
+     */
+    private static long readLastSequence(ContentResolver resolver) {
+        Cursor cursor = query(resolver, PetChangeEntry.CONTENT_URI,
+                new String[] { PetChangeEntry.COLUMN_SEQUENCE }, SELECTION_LAST_CHANGE, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Query the pets at the given URI with {@link #PROJECTION}.
+     */
+    private static Cursor query(ContentResolver resolver, Uri uri, String selection,
+                                String[] selectionArgs) {
+        return query(resolver, uri, PROJECTION, selection, selectionArgs);
+    }
+
+    private static Cursor query(ContentResolver resolver, Uri uri, String[] projection,
+                                String selection, String[] selectionArgs) {
+        Cursor cursor = resolver.query(uri, projection, selection, selectionArgs, null);
+        if (cursor == null) {
+            throw new IllegalStateException("Couldn't query " + uri);
+        }
+        return cursor;
+    }
+}
@@ -35,6 +35,161 @@ public final class PetContract {
      */
     public static final String PETS_PATH = "pets";
 
+    /**
+     * Path (appended to the pets content URI) for full-text searches over pet names and breeds.
+     * For instance, content://com.example.android.pets/pets/search/tom returns the pets whose
+     * name or breed has a word starting with "tom".
+     */
+    public static final String SEARCH_PATH = "search";
+
+    /**
+     * Path (appended to the pets content URI) for the summary statistics of the pets table.
+     */
+    public static final String STATS_PATH = "stats";
+
+    /**
+     * Path (appended to the pets content URI) for the log of changes to the pets table.
+     */
+    public static final String CHANGES_PATH = "changes";
+
+    /**
+     * Path (appended to base content URI) for the pets of the individual shelters, each kept
+     * in a database of its own (see {@link PetShelterEntry}).
+     */
+    public static final String SHELTERS_PATH = "shelters";
+
+    /**
+     * Provider method (for {@link ContentResolver#call}) that returns the change notification
+     * counters: the number of notifications sent in {@link #KEY_NOTIFICATIONS_DELIVERED}, and
+     * the number collapsed into one that was already pending in
+     * {@link #KEY_NOTIFICATIONS_SUPPRESSED}.
+     */
+    public static final String METHOD_GET_NOTIFICATION_STATS = "get_notification_stats";
+    public static final String KEY_NOTIFICATIONS_DELIVERED = "notifications_delivered";
+    public static final String KEY_NOTIFICATIONS_SUPPRESSED = "notifications_suppressed";
+
+    /**
+     * Provider method that sets the window, in milliseconds, within which change notifications
+     * for the same URI are collapsed. The window is passed as the string argument, and 0 sends
+     * every notification immediately.
+     */
+    public static final String METHOD_SET_NOTIFICATION_WINDOW = "set_notification_window";
+
+    /**
+     * Provider method that sets whether the pending change notifications are sent as soon as a
+     * transaction commits, which they are by default, passed as the string argument "true" or
+     * "false". With "false", committed changes wait for the notification window like any other,
+     * so a stream of batches shares one notification per window.
+     */
+    public static final String METHOD_SET_NOTIFICATION_FLUSH_ON_COMMIT =
+            "set_notification_flush_on_commit";
+
+    /**
+     * Provider method that checks the summary statistics against the pets table and rebuilds
+     * them from scratch if they don't match. The result holds whether they matched in
+     * {@link #KEY_STATS_CONSISTENT}.
+     */
+    public static final String METHOD_CHECK_STATS = "check_stats";
+    public static final String KEY_STATS_CONSISTENT = "stats_consistent";
+
+    /**
+     * Provider method that returns the query cache counters: the number of queries served from
+     * the cache in {@link #KEY_QUERY_CACHE_HITS}, the number that went to the database in
+     * {@link #KEY_QUERY_CACHE_MISSES}, and the estimated size in bytes of the cached results in
+     * {@link #KEY_QUERY_CACHE_BYTES}.
+     */
+    public static final String METHOD_GET_QUERY_CACHE_STATS = "get_query_cache_stats";
+    public static final String KEY_QUERY_CACHE_HITS = "query_cache_hits";
+    public static final String KEY_QUERY_CACHE_MISSES = "query_cache_misses";
+    public static final String KEY_QUERY_CACHE_BYTES = "query_cache_bytes";
+
+    /**
+     * Provider method that returns the write queue counters: the number of writes waiting in
+     * {@link #KEY_WRITE_QUEUE_DEPTH}, the number of batches committed in
+     * {@link #KEY_WRITE_BATCH_COUNT}, the total number of writes in them in
+     * {@link #KEY_WRITE_COUNT}, and the size of the largest batch in
+     * {@link #KEY_MAX_WRITE_BATCH_SIZE}.
+     */
+    public static final String METHOD_GET_WRITE_QUEUE_STATS = "get_write_queue_stats";
+    public static final String KEY_WRITE_QUEUE_DEPTH = "write_queue_depth";
+    public static final String KEY_WRITE_BATCH_COUNT = "write_batch_count";
+    public static final String KEY_WRITE_COUNT = "write_count";
+    public static final String KEY_MAX_WRITE_BATCH_SIZE = "max_write_batch_size";
+
+    /**
+     * Provider method that removes the changes up to and including the sequence number passed
+     * as the string argument from the change log (see {@link PetChangeEntry}).
+     */
+    public static final String METHOD_COMPACT_CHANGES = "compact_changes";
+
+    /**
+     * Provider method that returns the latency and row counts of the provider entry points
+     * (query, insert, update, delete, bulkInsert and applyBatch), also printed by
+     * "adb shell dumpsys activity provider com.example.android.pets/.data.PetProvider".
+     *
+     * The result holds a long array for every operation and URI pattern that has been called,
+     * keyed by "operation/pattern" (for example "query/pets/#"). The array holds the number of
+     * calls, the number of rows returned or changed, the total and the maximum latency in
+     * nanoseconds, followed by a histogram of latencies: element 4 counts calls under 1 us, and
+     * element 4 + i counts calls from 2^(i-1) up to 2^i us.
+     */
+    public static final String METHOD_GET_METRICS = "get_metrics";
+
+    /**
+     * Provider method that clears the counters returned by {@link #METHOD_GET_METRICS}.
+     */
+    public static final String METHOD_RESET_METRICS = "reset_metrics";
+
+    /**
+     * Provider method that returns the most recent queries that took longer than the slow query
+     * threshold, oldest first, as parallel arrays: the SQL with its literals replaced by "?" in
+     * {@link #KEY_SLOW_QUERY_SQL}, the output of EXPLAIN QUERY PLAN (one step per line) in
+     * {@link #KEY_SLOW_QUERY_PLANS}, the number of bound arguments (int) in
+     * {@link #KEY_SLOW_QUERY_ARGUMENT_COUNTS}, the duration in nanoseconds (long) in
+     * {@link #KEY_SLOW_QUERY_DURATIONS}, and the wall clock time in milliseconds (long) in
+     * {@link #KEY_SLOW_QUERY_TIMES}.
+     */
+    public static final String METHOD_GET_SLOW_QUERIES = "get_slow_queries";
+    public static final String KEY_SLOW_QUERY_SQL = "slow_query_sql";
+    public static final String KEY_SLOW_QUERY_PLANS = "slow_query_plans";
+    public static final String KEY_SLOW_QUERY_ARGUMENT_COUNTS = "slow_query_argument_counts";
+    public static final String KEY_SLOW_QUERY_DURATIONS = "slow_query_durations";
+    public static final String KEY_SLOW_QUERY_TIMES = "slow_query_times";
+
+    /**
+     * Provider method that sets the time, in milliseconds, that a query has to take to be
+     * returned by {@link #METHOD_GET_SLOW_QUERIES}. The threshold is passed as the string
+     * argument, and 0 logs every query.
+     */
+    public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "set_slow_query_threshold";
+
+    /**
+     * Provider method that clears the queries returned by {@link #METHOD_GET_SLOW_QUERIES}.
+     */
+    public static final String METHOD_CLEAR_SLOW_QUERIES = "clear_slow_queries";
+
+    /**
+     * Provider method that selects the database performance profile named by the string
+     * argument: "stock" for the default SQLite settings, "kiosk" for memory-mapped reads and a
+     * large page cache, or "low_memory" for a small cache and fully synced commits. The
+     * selection is remembered across restarts.
+     */
+    public static final String METHOD_SET_DATABASE_PROFILE = "set_database_profile";
+
+    /**
+     * Provider method that returns the name of the selected database performance profile in
+     * {@link #KEY_DATABASE_PROFILE}, and the current values of the settings it controls (as
+     * longs) in {@link #KEY_MMAP_SIZE}, {@link #KEY_CACHE_SIZE}, {@link #KEY_SYNCHRONOUS},
+     * {@link #KEY_TEMP_STORE} and {@link #KEY_PAGE_SIZE}.
+     */
+    public static final String METHOD_GET_DATABASE_PROFILE = "get_database_profile";
+    public static final String KEY_DATABASE_PROFILE = "database_profile";
+    public static final String KEY_MMAP_SIZE = "mmap_size";
+    public static final String KEY_CACHE_SIZE = "cache_size";
+    public static final String KEY_SYNCHRONOUS = "synchronous";
+    public static final String KEY_TEMP_STORE = "temp_store";
+    public static final String KEY_PAGE_SIZE = "page_size";
+
     /**
      * Inner class that defines constant values for the pets database table.
      * Each entry in the table represents a single pet.
@@ -44,6 +199,9 @@ public final class PetContract {
         /** The content URI to access the pet data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PETS_PATH);
 
+        /** The content URI to search the pet data in the provider */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, SEARCH_PATH);
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of pets.
          */
@@ -56,6 +214,56 @@ public final class PetContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PETS_PATH;
 
+        /**
+         * Query parameters for reading the {@link #CONTENT_URI} one page at a time.
+         *
+         * A page holds at most {@link #QUERY_PARAM_LIMIT} pets ordered by the column named in
+         * {@link #QUERY_PARAM_SORT_KEY} (one of {@link #_ID}, {@link #COLUMN_PET_NAME},
+         * {@link #COLUMN_PET_GENDER} or {@link #COLUMN_PET_WEIGHT}, defaulting to {@link #_ID}),
+         * with ties broken by {@link #_ID}. The next page starts after the last pet of the
+         * previous one, given by its sort key value in {@link #QUERY_PARAM_AFTER_KEY} and its
+         * ID in {@link #QUERY_PARAM_AFTER_ID}. A page is found by seeking the index on its sort
+         * key and ID rather than by skipping the rows of earlier pages, so loading it costs the
+         * same wherever it is in the order. Pets with the same sort key as the last pet of the
+         * previous page are read again from the index to skip past them, so a key shared by many
+         * pets (such as a gender) makes every page after the first with that key cost more. A
+         * selection given with the paged query filters the rows the index returns, so a
+         * selective filter makes pages cost more too. A paged query can't be given its own sort
+         * order. Names are compared case-insensitively.
+         */
+        public static final String QUERY_PARAM_LIMIT = "limit";
+        public static final String QUERY_PARAM_SORT_KEY = "sort_key";
+        public static final String QUERY_PARAM_AFTER_KEY = "after_key";
+        public static final String QUERY_PARAM_AFTER_ID = "after_id";
+
+        /**
+         * MIME type for reading the {@link #CONTENT_URI} as a stream in CSV, through
+         * {@link ContentResolver#openTypedAssetFileDescriptor}. The first line names the columns
+         * ({@link #_ID}, {@link #COLUMN_PET_NAME}, {@link #COLUMN_PET_BREED},
+         * {@link #COLUMN_PET_GENDER}, {@link #COLUMN_PET_WEIGHT}), followed by one line per pet.
+         */
+        public static final String CSV_TYPE = "text/csv";
+
+        /**
+         * MIME type for reading the {@link #CONTENT_URI} as a stream in a compact binary format.
+         * The stream is written with {@link java.io.DataOutputStream}: the int
+         * {@link #BINARY_MAGIC} and the int {@link #BINARY_VERSION}, then for every pet its ID
+         * (long), name (string), whether it has a breed (boolean) and if so the breed (string),
+         * its gender (byte) and its weight (int), and finally an ID of -1. A string is the number
+         * of bytes it takes in UTF-8 (int), followed by those bytes.
+         */
+        public static final String BINARY_TYPE =
+                "application/vnd." + CONTENT_AUTHORITY + ".binary";
+
+        /** First int of a stream in the {@link #BINARY_TYPE} format ("PETS") */
+        public static final int BINARY_MAGIC = 0x50455453;
+
+        /**
+         * Version of the {@link #BINARY_TYPE} format. Version 1 wrote the strings with
+         * {@link java.io.DataOutputStream#writeUTF}, which can't hold more than 65535 bytes.
+         */
+        public static final int BINARY_VERSION = 2;
+
         /** Name of database table for pets */
         public final static String TABLE_NAME = "pets";
 
@@ -74,7 +282,8 @@ public final class PetContract {
         public final static String COLUMN_PET_NAME ="name";
 
         /**
-         * Breed of the pet.
+         * Breed of the pet. The database stores each distinct breed once and the pets refer
+         * to it, but the breed is read and written as text like any other column.
          *
          * Type: TEXT
          */
@@ -104,6 +313,41 @@ public final class PetContract {
         public static final int GENDER_MALE = 1;
         public static final int GENDER_FEMALE = 2;
 
+        /**
+         * Returns the content URI for the first page of pets ordered by the given sort key.
+         */
+        public static Uri buildFirstPageUri(String sortKey, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_SORT_KEY, sortKey)
+                    .appendQueryParameter(QUERY_PARAM_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Returns the content URI for the page that follows the given page, whose last pet has
+         * the given sort key value and ID.
+         */
+        public static Uri buildNextPageUri(Uri pageUri, String lastKey, long lastId) {
+            Uri.Builder builder = pageUri.buildUpon().clearQuery();
+            for (String name : pageUri.getQueryParameterNames()) {
+                if (!QUERY_PARAM_AFTER_KEY.equals(name) && !QUERY_PARAM_AFTER_ID.equals(name)) {
+                    builder.appendQueryParameter(name, pageUri.getQueryParameter(name));
+                }
+            }
+            return builder.appendQueryParameter(QUERY_PARAM_AFTER_KEY, lastKey)
+                    .appendQueryParameter(QUERY_PARAM_AFTER_ID, String.valueOf(lastId))
+                    .build();
+        }
+
+        /**
+         * Returns the content URI that searches the pets for the given text. Every word of the
+         * text is matched as a prefix, so a partially typed word still finds its pets, and the
+         * results are ranked with exact and prefix name matches first.
+         */
+        public static Uri buildSearchUri(String query) {
+            return Uri.withAppendedPath(CONTENT_SEARCH_URI, query);
+        }
+
         /**
          * Returns whether or not the given gender is {@link #GENDER_UNKNOWN}, {@link #GENDER_MALE},
          * or {@link #GENDER_FEMALE}.
@@ -116,4 +360,175 @@ public final class PetContract {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Inner class that defines the summary statistics of the pets table. The statistics are a
+     * single row, kept up to date by the database as pets are added, changed and removed, so
+     * reading them costs the same however many pets there are.
+     */
+    public static final class PetStatsEntry {
+
+        /** The content URI to access the pet statistics in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, STATS_PATH);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the pet statistics.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PETS_PATH
+                        + "/" + STATS_PATH;
+
+        /** Name of database table for the pet statistics */
+        public final static String TABLE_NAME = "pet_stats";
+
+        /**
+         * Total number of pets.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PET_COUNT = "pet_count";
+
+        /**
+         * Number of pets with each gender.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_UNKNOWN_COUNT = "unknown_count";
+        public final static String COLUMN_MALE_COUNT = "male_count";
+        public final static String COLUMN_FEMALE_COUNT = "female_count";
+
+        /**
+         * Total weight of all pets.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOTAL_WEIGHT = "total_weight";
+
+        /**
+         * Mean weight of the pets, or 0 if there are none.
+         *
+         * Type: REAL
+         */
+        public final static String COLUMN_MEAN_WEIGHT = "mean_weight";
+
+        /**
+         * Number of distinct breeds, not counting pets without a breed.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_BREED_COUNT = "breed_count";
+    }
+
+    /**
+     * Inner class that defines the pets of the individual shelters. Each shelter keeps its pets
+     * in a database of its own, with the same columns as {@link PetEntry}, so that shelters
+     * don't share a file or wait for each other's writes.
+     *
+     * The pets of one shelter are at content://com.example.android.pets/shelters/3/pets (see
+     * {@link #buildPetsUri}), and a single pet at .../shelters/3/pets/7; they can be queried,
+     * inserted, updated and deleted like the {@link PetEntry#CONTENT_URI} pets, and IDs are only
+     * unique within their shelter. A shelter's database is created with its first pet.
+     *
+     * The {@link #CONTENT_URI} queries the pets of every shelter at once, adding the
+     * {@link #COLUMN_SHELTER_ID} of each pet. The query runs on every shelter and the results are
+     * merged, so it can only be sorted by columns of the result, each optionally followed by
+     * COLLATE NOCASE and ASC or DESC. Without a sort order, the shelters follow each other.
+     * The pets of {@link PetEntry#CONTENT_URI} don't belong to any shelter and aren't included.
+     */
+    public static final class PetShelterEntry {
+
+        /** The content URI to query the pets of every shelter in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(
+                Uri.withAppendedPath(BASE_CONTENT_URI, SHELTERS_PATH), PETS_PATH);
+
+        /**
+         * ID of the shelter of the pet, only in the results of {@link #CONTENT_URI}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SHELTER_ID = "shelter_id";
+
+        /**
+         * Returns the content URI for the pets of the given shelter.
+         */
+        public static Uri buildPetsUri(long shelterId) {
+            return BASE_CONTENT_URI.buildUpon()
+                    .appendPath(SHELTERS_PATH)
+                    .appendPath(String.valueOf(shelterId))
+                    .appendPath(PETS_PATH)
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines the log of changes to the pets table. Every pet that is added,
+     * changed or removed appends an entry with the next sequence number, so a consumer that
+     * remembers the last sequence number it has seen can ask for only what changed since,
+     * instead of reloading every pet.
+     *
+     * The oldest entries are compacted away as the log grows. If the first entry returned for
+     * {@link #QUERY_PARAM_SINCE} is more than one past the given sequence number, changes have
+     * been compacted away and the consumer should reload every pet.
+     */
+    public static final class PetChangeEntry {
+
+        /** The content URI to access the change log in the provider */
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(PetEntry.CONTENT_URI, CHANGES_PATH);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of changes.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PETS_PATH
+                        + "/" + CHANGES_PATH;
+
+        /**
+         * Query parameter holding the last sequence number the consumer has seen. Only the
+         * changes after it are returned, in sequence order.
+         */
+        public static final String QUERY_PARAM_SINCE = "since";
+
+        /** Name of database table for the change log */
+        public final static String TABLE_NAME = "pet_changes";
+
+        /**
+         * Sequence number of the change, increasing with every change.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SEQUENCE = "sequence";
+
+        /**
+         * ID of the pet that changed.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PET_ID = "pet_id";
+
+        /**
+         * What happened to the pet.
+         *
+         * The only possible values are {@link #OPERATION_INSERT}, {@link #OPERATION_UPDATE},
+         * or {@link #OPERATION_DELETE}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_OPERATION = "operation";
+
+        /**
+         * Possible values for the operation of a change.
+         */
+        public static final int OPERATION_INSERT = 1;
+        public static final int OPERATION_UPDATE = 2;
+        public static final int OPERATION_DELETE = 3;
+
+        /**
+         * Returns the content URI for the changes after the given sequence number.
+         */
+        public static Uri buildChangesSinceUri(long sequence) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_SINCE, String.valueOf(sequence))
+                    .build();
+        }
+    }
+}
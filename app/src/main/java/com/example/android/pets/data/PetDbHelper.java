@@ -1,10 +1,22 @@
 package com.example.android.pets.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.text.TextUtils;
 
+import com.example.android.pets.data.PetContract.PetChangeEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Database helper for Pets app. Manages database creation and version management.
@@ -19,7 +31,91 @@ public class PetDbHelper extends SQLiteOpenHelper {
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 7;
+
+    /** Name of the index on the pet name, compared case-insensitively */
+    static final String INDEX_PETS_NAME = "pets_name_idx";
+
+    /** Name of the index on the pet gender and weight, for filtering by gender and weight */
+    static final String INDEX_PETS_GENDER_WEIGHT = "pets_gender_weight_idx";
+
+    /** Name of the index on the pet breed */
+    static final String INDEX_PETS_BREED = "pets_breed_idx";
+
+    /** Name of the index on the pet weight (then the ID), for paging in order of weight */
+    static final String INDEX_PETS_WEIGHT_ID = "pets_weight_id_idx";
+
+    /** Name of the index on the pet gender (then the ID), for paging in order of gender */
+    static final String INDEX_PETS_GENDER_ID = "pets_gender_id_idx";
+
+    /** Name of the full-text index over the pet name and breed */
+    static final String FTS_TABLE_NAME = "pets_fts";
+
+    /** Name of the view the full-text index reads the pet name and breed from, by rowid */
+    static final String FTS_CONTENT_VIEW_NAME = "pets_fts_content";
+
+    /** Name of the table of distinct breeds, which the pets refer to by ID */
+    static final String BREEDS_TABLE_NAME = "pet_breeds";
+
+    /** ID of a breed, in the breeds table and in the pets table */
+    static final String COLUMN_BREED_ID = "breed_id";
+
+    /**
+     * Name of the view of the pets with their breed as text, with the columns of
+     * {@link PetEntry}. Pets are read through the view, and written to the pets table.
+     */
+    static final String PETS_VIEW_NAME = "pets_with_breeds";
+
+    /** Name of the table counting the pets of each breed, for the breed statistics */
+    static final String BREED_COUNTS_TABLE_NAME = "pet_breed_counts";
+
+    /** Stored statistics columns, in the order of {@link #statsAggregates} */
+    private static final String[] STATS_COLUMNS = {
+            PetStatsEntry.COLUMN_PET_COUNT,
+            PetStatsEntry.COLUMN_UNKNOWN_COUNT,
+            PetStatsEntry.COLUMN_MALE_COUNT,
+            PetStatsEntry.COLUMN_FEMALE_COUNT,
+            PetStatsEntry.COLUMN_TOTAL_WEIGHT,
+            PetStatsEntry.COLUMN_BREED_COUNT };
+
+    /** Number of most recent entries the change log keeps when it compacts itself */
+    private static final int CHANGES_RETAINED = 10000;
+
+    /** The change log compacts itself every time this many entries have been added */
+    private static final int CHANGES_COMPACTION_INTERVAL = 1000;
+
+    /**
+     * Number of pages the write-ahead log may grow to before SQLite checkpoints it back into
+     * the database file on its own after a commit.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    /** Name of the preferences holding the selected performance profile */
+    private static final String PREFERENCES_NAME = "shelter_db";
+
+    /** Preference holding the name of the selected {@link PetDbProfile} */
+    private static final String PREFERENCE_PROFILE = "profile";
+
+    /** Preferences holding the selected performance profile */
+    private final SharedPreferences mPreferences;
+
+    /** Performance settings applied to the database */
+    private volatile PetDbProfile mProfile;
+
+    /** Database file */
+    private final File mDatabaseFile;
+
+    /** Whether {@link #createDatabaseFile} has run */
+    private boolean mDatabaseFileChecked;
+
+    /** ID of every breed interned and committed since the database was opened, by breed */
+    private final Map<String, Long> mBreedIds = new HashMap<>();
+
+    /**
+     * IDs of the breeds interned by the transaction running on each thread, by breed, until
+     * {@link #onTransactionEnded} publishes them to {@link #mBreedIds} or drops them
+     */
+    private final ThreadLocal<Map<String, Long>> mPendingBreedIds = new ThreadLocal<>();
 
     /**
      * Constructs a new instance of {@link PetDbHelper}.
@@ -27,7 +123,275 @@ public class PetDbHelper extends SQLiteOpenHelper {
      * @param context of the app
      */
     public PetDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Constructs a new instance of {@link PetDbHelper} for a database file of its own, with
+     * the same schema as shelter.db.
+     *
+     * @param context of the app
+     * @param databaseName name of the database file
+     */
+    public PetDbHelper(Context context, String databaseName) {
+        super(context, databaseName, null, DATABASE_VERSION);
+        mDatabaseFile = context.getDatabasePath(databaseName);
+
+        // Use write-ahead logging, so that a write from the editor doesn't block the catalog
+        // loader reading on another thread, and a commit only appends to the log instead of
+        // syncing a full rollback journal.
+        setWriteAheadLoggingEnabled(true);
+
+        // Use the performance profile selected last, if any
+        mPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        try {
+            mProfile = PetDbProfile.forName(mPreferences.getString(PREFERENCE_PROFILE,
+                    PetDbProfile.STOCK.getName()));
+        } catch (IllegalArgumentException e) {
+            mProfile = PetDbProfile.STOCK;
+        }
+    }
+
+    /**
+     * Returns the performance profile applied to the database.
+     */
+    public PetDbProfile getProfile() {
+        return mProfile;
+    }
+
+    @Override
+    public SQLiteDatabase getWritableDatabase() {
+        createDatabaseFile();
+        return super.getWritableDatabase();
+    }
+
+    @Override
+    public SQLiteDatabase getReadableDatabase() {
+        createDatabaseFile();
+        return super.getReadableDatabase();
+    }
+
+    /**
+     * Create the database file with the page size of the profile, if the profile has one and
+     * there is no file yet.
+     *
+     * The page size is fixed once the file is first written, and Android writes it as soon as
+     * it opens it (turning on write-ahead logging and adding its android_metadata table), before
+     * {@link #onConfigure} runs. So the file is created here first: the page size is set on the
+     * still empty file, then turning on write-ahead logging writes its header. The helper then
+     * opens it like any new database, at version 0, and creates the schema.
+     */
+    private synchronized void createDatabaseFile() {
+        if (mDatabaseFileChecked) {
+            return;
+        }
+        mDatabaseFileChecked = true;
+        Integer pageSize = mProfile.getPageSize();
+        if (pageSize == null || mDatabaseFile.exists()) {
+            return;
+        }
+
+        File directory = mDatabaseFile.getParentFile();
+        if (directory != null) {
+            directory.mkdirs();
+        }
+        int flags = SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.NO_LOCALIZED_COLLATORS;
+        SQLiteDatabase db;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            // Without a journal mode of its own, Android would open it in write-ahead logging
+            // mode, writing the header before the page size is set
+            db = SQLiteDatabase.openDatabase(mDatabaseFile, new SQLiteDatabase.OpenParams.Builder()
+                    .addOpenFlags(flags)
+                    .setJournalMode("TRUNCATE")
+                    .build());
+        } else {
+            db = SQLiteDatabase.openDatabase(mDatabaseFile.getPath(), null, flags);
+        }
+        try {
+            runPragma(db, "PRAGMA page_size=" + pageSize);
+            runPragma(db, "PRAGMA journal_mode=WAL");
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Select the given performance profile, and remember it for the next time the app starts.
+     * Its connection settings are applied to the open database right away, its page size only
+     * to a database created from now on. A setting that the profile leaves at its default
+     * keeps its current value until the database is reopened.
+     */
+    public void setProfile(PetDbProfile profile) {
+        mProfile = profile;
+        mPreferences.edit().putString(PREFERENCE_PROFILE, profile.getName()).apply();
+        applyConnectionSettings(getWritableDatabase(), profile);
+    }
+
+    /**
+     * Returns the current value of the given integer PRAGMA, for example "cache_size".
+     */
+    public long readPragma(String name) {
+        return DatabaseUtils.longForQuery(getReadableDatabase(), "PRAGMA " + name, null);
+    }
+
+    /**
+     * Returns the ID of the given breed in the breeds table, adding the breed if it is new.
+     *
+     * Breeds are never removed, so the ID of a breed is remembered in memory and the database
+     * is only asked the first time. A breed added inside a transaction isn't there for anyone
+     * else until the transaction commits, and is gone again if it rolls back, so its ID is only
+     * remembered for the thread running the transaction until then. Whoever ends a transaction
+     * that wrote pets has to call {@link #onTransactionEnded}.
+     */
+    public long internBreed(String breed) {
+        synchronized (mBreedIds) {
+            Long id = mBreedIds.get(breed);
+            if (id != null) {
+                return id;
+            }
+        }
+        Map<String, Long> pending = mPendingBreedIds.get();
+        if (pending != null && pending.containsKey(breed)) {
+            return pending.get(breed);
+        }
+
+        // Ignoring a breed that is already there lets two writers add the same new breed at
+        // once, without holding the lock while waiting for the database
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_BREED, breed);
+        db.insertWithOnConflict(BREEDS_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        long id = DatabaseUtils.longForQuery(db, "SELECT " + COLUMN_BREED_ID + " FROM "
+                + BREEDS_TABLE_NAME + " WHERE " + PetEntry.COLUMN_PET_BREED + " = ?",
+                new String[] { breed });
+        if (db.inTransaction()) {
+            if (pending == null) {
+                pending = new HashMap<>();
+                mPendingBreedIds.set(pending);
+            }
+            pending.put(breed, id);
+        } else {
+            synchronized (mBreedIds) {
+                mBreedIds.put(breed, id);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * The transaction that was running on this thread has ended. If it was committed, remember
+     * the IDs of the breeds it interned for everyone; otherwise forget them, since the breeds
+     * were rolled back with it.
+     */
+    public void onTransactionEnded(boolean committed) {
+        Map<String, Long> pending = mPendingBreedIds.get();
+        if (pending == null) {
+            return;
+        }
+        mPendingBreedIds.remove();
+        if (committed) {
+            synchronized (mBreedIds) {
+                mBreedIds.putAll(pending);
+            }
+        }
+    }
+
+    /**
+     * Forget the committed breed IDs remembered by {@link #internBreed}, because the database
+     * may have changed without them.
+     */
+    public void forgetBreeds() {
+        synchronized (mBreedIds) {
+            mBreedIds.clear();
+        }
+    }
+
+    /**
+     * Returns the given values of a pet as they are written to the pets table: with the breed,
+     * if there is one, replaced by its ID from {@link #internBreed}. The given values are left
+     * as they are.
+     */
+    public ContentValues toStoredValues(ContentValues values) {
+        if (!values.containsKey(PetEntry.COLUMN_PET_BREED)) {
+            return values;
+        }
+        ContentValues stored = new ContentValues(values);
+        String breed = stored.getAsString(PetEntry.COLUMN_PET_BREED);
+        stored.remove(PetEntry.COLUMN_PET_BREED);
+        if (breed == null) {
+            stored.putNull(COLUMN_BREED_ID);
+        } else {
+            stored.put(COLUMN_BREED_ID, internBreed(breed));
+        }
+        return stored;
+    }
+
+    /**
+     * This is called when the database connection is being configured, before the database
+     * is created or upgraded.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+
+        // Let SQLite checkpoint the write-ahead log automatically once it reaches the given size
+        runPragma(db, "PRAGMA wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES);
+
+        // The page size of a new database was set when its file was created (see
+        // createDatabaseFile)
+        applyConnectionSettings(db, mProfile);
+    }
+
+    /**
+     * This is called when the database has been opened. Breed IDs remembered from before it
+     * was closed are forgotten, in case the file changed in between.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        forgetBreeds();
+    }
+
+    /**
+     * Apply the connection settings of the given profile to the given database.
+     *
+     * SQLite keeps these settings per connection, and with write-ahead logging Android runs
+     * reads on a pool of connections besides the primary one that writes. From Android 11 on,
+     * the settings are handed to the database to run on every connection, those open now and
+     * those opened later. Earlier versions can't run a statement on every connection: SQLite
+     * reports these PRAGMAs as reads, so each runs once on whichever connection the pool hands
+     * out for a read, and the settings only reach the queries that happen to run there.
+     */
+    private static void applyConnectionSettings(SQLiteDatabase db, PetDbProfile profile) {
+        for (String pragma : profile.getConnectionPragmas()) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                db.execPerConnectionSQL(pragma, null);
+            } else {
+                runPragma(db, pragma);
+            }
+        }
+    }
+
+    /**
+     * Copy everything in the write-ahead log back into the database file and truncate the log.
+     * Call this after a large batch of writes, so that readers don't have to search a long log
+     * and the log file doesn't keep its peak size on disk.
+     */
+    public void checkpoint() {
+        runPragma(getWritableDatabase(), "PRAGMA wal_checkpoint(TRUNCATE)");
+    }
+
+    /**
+     * Run a PRAGMA statement. PRAGMAs that report a result can't go through execSQL(), so the
+     * statement is run as a query and its result is discarded.
+     */
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
@@ -35,6 +399,55 @@ public class PetDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
+        // Create the version 1 schema, then bring it up to date with the same migrations that
+        // existing databases go through, so that new and upgraded databases always match.
+        createVersion1(db);
+        onUpgrade(db, 1, DATABASE_VERSION);
+    }
+
+    /**
+     * This is called when the database needs to be upgraded. The migrations are applied one
+     * version at a time, in order.
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (int version = oldVersion; version < newVersion; version++) {
+            migrate(db, version);
+        }
+    }
+
+    /**
+     * Upgrade the database from the given version to the next one.
+     */
+    static void migrate(SQLiteDatabase db, int fromVersion) {
+        switch (fromVersion) {
+            case 1:
+                migrateToVersion2(db);
+                break;
+            case 2:
+                migrateToVersion3(db);
+                break;
+            case 3:
+                migrateToVersion4(db);
+                break;
+            case 4:
+                migrateToVersion5(db);
+                break;
+            case 5:
+                migrateToVersion6(db);
+                break;
+            case 6:
+                migrateToVersion7(db);
+                break;
+            default:
+                throw new IllegalStateException("No migration from database version " + fromVersion);
+        }
+    }
+
+    /**
+     * Create the version 1 schema: the pets table on its own.
+     */
+    static void createVersion1(SQLiteDatabase db) {
         // Create a String that contains the SQL statement to create the pets table
         String SQL_CREATE_PETS_TABLE =  "CREATE TABLE " + PetEntry.TABLE_NAME + " ("
                 + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
@@ -48,10 +461,352 @@ public class PetDbHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * This is called when the database needs to be upgraded.
+     * Version 2 adds the indexes used by the catalog: a case-insensitive index on the name for
+     * lookups and sorting, a composite index for filtering by gender and weight range, and an
+     * index on the breed.
      */
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+    static void migrateToVersion2(SQLiteDatabase db) {
+        createIndexes(db, PetEntry.COLUMN_PET_BREED);
+    }
+
+    /**
+     * Create the indexes of the pets table, indexing the breed through the given column.
+     */
+    private static void createIndexes(SQLiteDatabase db, String breedColumn) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PETS_NAME + " ON "
+                + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_NAME + " COLLATE NOCASE);");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PETS_GENDER_WEIGHT + " ON "
+                + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_GENDER + ", "
+                + PetEntry.COLUMN_PET_WEIGHT + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PETS_BREED + " ON "
+                + PetEntry.TABLE_NAME + " (" + breedColumn + ");");
+    }
+
+    /**
+     * Version 3 adds an FTS4 index mirroring the pet name and breed, kept in sync with the pets
+     * table by triggers. The index doesn't store its own copy of the text, it reads it from the
+     * pets table (an external content table), and the docid of each entry is the pet _ID.
+     */
+    static void migrateToVersion3(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4("
+                + "content=\"" + PetEntry.TABLE_NAME + "\", "
+                + PetEntry.COLUMN_PET_NAME + ", "
+                + PetEntry.COLUMN_PET_BREED + ");");
+        createFtsTriggers(db, "new." + PetEntry.COLUMN_PET_BREED);
+
+        // Index the pets that are already in the table
+        db.execSQL("INSERT INTO " + FTS_TABLE_NAME + " (" + FTS_TABLE_NAME + ") VALUES ('rebuild');");
+    }
+
+    /**
+     * Create the triggers that keep the full-text index in sync with the pets table, given the
+     * expression for the breed of the new row.
+     */
+    private static void createFtsTriggers(SQLiteDatabase db, String newBreed) {
+        // The old entry has to be removed before the pets row changes, because the index
+        // reads the text it removes from its content table.
+        String deleteOld = "DELETE FROM " + FTS_TABLE_NAME
+                + " WHERE docid = old." + PetEntry._ID + "; ";
+        String insertNew = "INSERT INTO " + FTS_TABLE_NAME + " (docid, "
+                + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ") VALUES (new."
+                + PetEntry._ID + ", new." + PetEntry.COLUMN_PET_NAME + ", " + newBreed + "); ";
+
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_ai AFTER INSERT ON "
+                + PetEntry.TABLE_NAME + " BEGIN " + insertNew + "END;");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_bu BEFORE UPDATE ON "
+                + PetEntry.TABLE_NAME + " BEGIN " + deleteOld + "END;");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_au AFTER UPDATE ON "
+                + PetEntry.TABLE_NAME + " BEGIN " + insertNew + "END;");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_bd BEFORE DELETE ON "
+                + PetEntry.TABLE_NAME + " BEGIN " + deleteOld + "END;");
+    }
+
+    /**
+     * Version 4 adds the summary statistics table, a single row kept current by triggers on
+     * the pets table. Distinct breeds are tracked through a table counting the pets of each
+     * breed: a breed is added when its first pet arrives and removed with its last one, and
+     * triggers on that table keep the breed count in the summary.
+     */
+    static void migrateToVersion4(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + PetStatsEntry.TABLE_NAME + " ("
+                + PetStatsEntry.COLUMN_PET_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + PetStatsEntry.COLUMN_UNKNOWN_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + PetStatsEntry.COLUMN_MALE_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + PetStatsEntry.COLUMN_FEMALE_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + PetStatsEntry.COLUMN_TOTAL_WEIGHT + " INTEGER NOT NULL DEFAULT 0, "
+                + PetStatsEntry.COLUMN_BREED_COUNT + " INTEGER NOT NULL DEFAULT 0);");
+        db.execSQL("INSERT INTO " + PetStatsEntry.TABLE_NAME + " DEFAULT VALUES;");
+        createStatsTriggers(db, PetEntry.COLUMN_PET_BREED, "TEXT");
+
+        // Count the pets that are already in the table
+        rebuildStats(db, PetEntry.COLUMN_PET_BREED);
+    }
+
+    /**
+     * Create the table counting the pets of each breed, keyed by the given breed column of the
+     * pets table (of the given type), and the triggers that keep it and the statistics current.
+     */
+    private static void createStatsTriggers(SQLiteDatabase db, String breedColumn,
+                                            String breedType) {
+        db.execSQL("CREATE TABLE " + BREED_COUNTS_TABLE_NAME + " ("
+                + breedColumn + " " + breedType + " PRIMARY KEY, "
+                + PetStatsEntry.COLUMN_PET_COUNT + " INTEGER NOT NULL);");
+        db.execSQL("CREATE TRIGGER " + BREED_COUNTS_TABLE_NAME + "_ai AFTER INSERT ON "
+                + BREED_COUNTS_TABLE_NAME + " BEGIN UPDATE " + PetStatsEntry.TABLE_NAME
+                + " SET " + PetStatsEntry.COLUMN_BREED_COUNT + " = "
+                + PetStatsEntry.COLUMN_BREED_COUNT + " + 1; END;");
+        db.execSQL("CREATE TRIGGER " + BREED_COUNTS_TABLE_NAME + "_ad AFTER DELETE ON "
+                + BREED_COUNTS_TABLE_NAME + " BEGIN UPDATE " + PetStatsEntry.TABLE_NAME
+                + " SET " + PetStatsEntry.COLUMN_BREED_COUNT + " = "
+                + PetStatsEntry.COLUMN_BREED_COUNT + " - 1; END;");
+
+        String addNew = statsChange("new", "+", breedColumn);
+        String removeOld = statsChange("old", "-", breedColumn);
+        db.execSQL("CREATE TRIGGER " + PetStatsEntry.TABLE_NAME + "_ai AFTER INSERT ON "
+                + PetEntry.TABLE_NAME + " BEGIN " + addNew + "END;");
+        db.execSQL("CREATE TRIGGER " + PetStatsEntry.TABLE_NAME + "_au AFTER UPDATE ON "
+                + PetEntry.TABLE_NAME + " BEGIN " + removeOld + addNew + "END;");
+        db.execSQL("CREATE TRIGGER " + PetStatsEntry.TABLE_NAME + "_ad AFTER DELETE ON "
+                + PetEntry.TABLE_NAME + " BEGIN " + removeOld + "END;");
+    }
+
+    /**
+     * Version 5 adds the change log, an append-only table filled by triggers on the pets
+     * table. The log compacts itself: every {@link #CHANGES_COMPACTION_INTERVAL} entries, the
+     * entries older than the last {@link #CHANGES_RETAINED} are removed.
+     */
+    static void migrateToVersion5(SQLiteDatabase db) {
+        // AUTOINCREMENT keeps sequence numbers from being reused after compaction
+        db.execSQL("CREATE TABLE " + PetChangeEntry.TABLE_NAME + " ("
+                + PetChangeEntry.COLUMN_SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + PetChangeEntry.COLUMN_PET_ID + " INTEGER NOT NULL, "
+                + PetChangeEntry.COLUMN_OPERATION + " INTEGER NOT NULL);");
+        createChangeLogTriggers(db);
+
+        db.execSQL("CREATE TRIGGER " + PetChangeEntry.TABLE_NAME + "_compact AFTER INSERT ON "
+                + PetChangeEntry.TABLE_NAME + " WHEN new." + PetChangeEntry.COLUMN_SEQUENCE
+                + " % " + CHANGES_COMPACTION_INTERVAL + " = 0 BEGIN DELETE FROM "
+                + PetChangeEntry.TABLE_NAME + " WHERE " + PetChangeEntry.COLUMN_SEQUENCE
+                + " <= new." + PetChangeEntry.COLUMN_SEQUENCE + " - " + CHANGES_RETAINED
+                + "; END;");
+    }
+
+    /**
+     * Create the triggers on the pets table that append its changes to the change log.
+     */
+    private static void createChangeLogTriggers(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER " + PetChangeEntry.TABLE_NAME + "_ai AFTER INSERT ON "
+                + PetEntry.TABLE_NAME + " BEGIN "
+                + logChange("new", PetChangeEntry.OPERATION_INSERT) + "END;");
+        db.execSQL("CREATE TRIGGER " + PetChangeEntry.TABLE_NAME + "_au AFTER UPDATE ON "
+                + PetEntry.TABLE_NAME + " BEGIN "
+                + logChange("new", PetChangeEntry.OPERATION_UPDATE) + "END;");
+        db.execSQL("CREATE TRIGGER " + PetChangeEntry.TABLE_NAME + "_ad AFTER DELETE ON "
+                + PetEntry.TABLE_NAME + " BEGIN "
+                + logChange("old", PetChangeEntry.OPERATION_DELETE) + "END;");
+    }
+
+    /**
+     * Returns the trigger statement that logs the given operation on the given row.
+     */
+    private static String logChange(String row, int operation) {
+        return "INSERT INTO " + PetChangeEntry.TABLE_NAME + " (" + PetChangeEntry.COLUMN_PET_ID
+                + ", " + PetChangeEntry.COLUMN_OPERATION + ") VALUES (" + row + "."
+                + PetEntry._ID + ", " + operation + "); ";
+    }
+
+    /**
+     * Version 6 moves the breeds into a table of their own, each distinct breed stored once,
+     * and the pets refer to their breed by its ID. Pets are read through a view that joins
+     * the breed back in, so they keep the same columns. The full-text index reads its text
+     * through another view, keyed by rowid as it expects of its content table, and the breed
+     * index and counts are keyed by breed ID.
+     */
+    static void migrateToVersion6(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + BREEDS_TABLE_NAME + " ("
+                + COLUMN_BREED_ID + " INTEGER PRIMARY KEY, "
+                + PetEntry.COLUMN_PET_BREED + " TEXT NOT NULL UNIQUE);");
+        db.execSQL("INSERT INTO " + BREEDS_TABLE_NAME + " (" + PetEntry.COLUMN_PET_BREED
+                + ") SELECT DISTINCT " + PetEntry.COLUMN_PET_BREED + " FROM "
+                + PetEntry.TABLE_NAME + " WHERE " + PetEntry.COLUMN_PET_BREED + " IS NOT NULL;");
+
+        // SQLite can't change the type of a column, so copy the pets into a new table with
+        // the breed ID instead of the breed, then put it in place of the old one
+        String newTable = PetEntry.TABLE_NAME + "_new";
+        db.execSQL("CREATE TABLE " + newTable + " ("
+                + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL, "
+                + COLUMN_BREED_ID + " INTEGER REFERENCES " + BREEDS_TABLE_NAME + " ("
+                + COLUMN_BREED_ID + "), "
+                + PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL, "
+                + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);");
+        db.execSQL("INSERT INTO " + newTable + " (" + PetEntry._ID + ", "
+                + PetEntry.COLUMN_PET_NAME + ", " + COLUMN_BREED_ID + ", "
+                + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ") SELECT "
+                + PetEntry.TABLE_NAME + "." + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME
+                + ", " + COLUMN_BREED_ID + ", " + PetEntry.COLUMN_PET_GENDER + ", "
+                + PetEntry.COLUMN_PET_WEIGHT + " FROM " + PetEntry.TABLE_NAME + " LEFT JOIN "
+                + BREEDS_TABLE_NAME + " USING (" + PetEntry.COLUMN_PET_BREED + ");");
+
+        // Carry over the last ID handed out, so the IDs of deleted pets aren't reused
+        db.execSQL("DELETE FROM sqlite_sequence WHERE name = '" + newTable + "';");
+        db.execSQL("INSERT INTO sqlite_sequence (name, seq) SELECT '" + newTable + "', seq"
+                + " FROM sqlite_sequence WHERE name = '" + PetEntry.TABLE_NAME + "';");
+
+        // Dropping the old table drops its indexes and triggers with it. The full-text index
+        // and the breed counts are rebuilt on the new table.
+        db.execSQL("DROP TABLE " + FTS_TABLE_NAME + ";");
+        db.execSQL("DROP TABLE " + BREED_COUNTS_TABLE_NAME + ";");
+        db.execSQL("DROP TABLE " + PetEntry.TABLE_NAME + ";");
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + PetEntry.TABLE_NAME + ";");
+        createIndexes(db, COLUMN_BREED_ID);
+
+        db.execSQL("CREATE VIEW " + PETS_VIEW_NAME + " AS SELECT " + PetEntry._ID + ", "
+                + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", "
+                + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + " FROM "
+                + PetEntry.TABLE_NAME + " LEFT JOIN " + BREEDS_TABLE_NAME + " USING ("
+                + COLUMN_BREED_ID + ");");
+        db.execSQL("CREATE VIEW " + FTS_CONTENT_VIEW_NAME + " AS SELECT " + PetEntry._ID
+                + " AS rowid, " + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED
+                + " FROM " + PETS_VIEW_NAME + ";");
+
+        db.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4("
+                + "content=\"" + FTS_CONTENT_VIEW_NAME + "\", "
+                + PetEntry.COLUMN_PET_NAME + ", "
+                + PetEntry.COLUMN_PET_BREED + ");");
+        createFtsTriggers(db, "(SELECT " + PetEntry.COLUMN_PET_BREED + " FROM "
+                + BREEDS_TABLE_NAME + " WHERE " + COLUMN_BREED_ID + " = new." + COLUMN_BREED_ID
+                + ")");
+        db.execSQL("INSERT INTO " + FTS_TABLE_NAME + " (" + FTS_TABLE_NAME
+                + ") VALUES ('rebuild');");
+
+        createStatsTriggers(db, COLUMN_BREED_ID, "INTEGER");
+        rebuildStats(db, COLUMN_BREED_ID);
+        createChangeLogTriggers(db);
+    }
+
+    /**
+     * Version 7 adds the indexes that paged queries sorted by weight or by gender seek. Like the
+     * name index that pages sorted by name seek, each only lists the sort key: SQLite orders the
+     * entries of an index by rowid (the ID) after its columns, which is the order of the pages.
+     */
+    static void migrateToVersion7(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PETS_WEIGHT_ID + " ON "
+                + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_WEIGHT + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PETS_GENDER_ID + " ON "
+                + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_GENDER + ");");
+    }
+
+    /**
+     * Remove the changes up to and including the given sequence number from the change log.
+     * Return the number of changes removed.
+     */
+    public int compactChanges(long sequence) {
+        return getWritableDatabase().delete(PetChangeEntry.TABLE_NAME,
+                PetChangeEntry.COLUMN_SEQUENCE + " <= ?",
+                new String[] { String.valueOf(sequence) });
+    }
+
+    /**
+     * Returns the trigger statements that add the given row ("new") to the statistics or
+     * remove it ("old") from them, depending on the given sign, counting breeds by the given
+     * breed column.
+     */
+    private static String statsChange(String row, String sign, String breedColumn) {
+        String breed = row + "." + breedColumn;
+        String gender = row + "." + PetEntry.COLUMN_PET_GENDER;
+        String statements = "UPDATE " + PetStatsEntry.TABLE_NAME + " SET "
+                + PetStatsEntry.COLUMN_PET_COUNT + " = " + PetStatsEntry.COLUMN_PET_COUNT
+                + " " + sign + " 1, "
+                + PetStatsEntry.COLUMN_UNKNOWN_COUNT + " = " + PetStatsEntry.COLUMN_UNKNOWN_COUNT
+                + " " + sign + " (" + gender + " = " + PetEntry.GENDER_UNKNOWN + "), "
+                + PetStatsEntry.COLUMN_MALE_COUNT + " = " + PetStatsEntry.COLUMN_MALE_COUNT
+                + " " + sign + " (" + gender + " = " + PetEntry.GENDER_MALE + "), "
+                + PetStatsEntry.COLUMN_FEMALE_COUNT + " = " + PetStatsEntry.COLUMN_FEMALE_COUNT
+                + " " + sign + " (" + gender + " = " + PetEntry.GENDER_FEMALE + "), "
+                + PetStatsEntry.COLUMN_TOTAL_WEIGHT + " = " + PetStatsEntry.COLUMN_TOTAL_WEIGHT
+                + " " + sign + " " + row + "." + PetEntry.COLUMN_PET_WEIGHT + "; ";
+        if (sign.equals("+")) {
+            statements += "INSERT OR IGNORE INTO " + BREED_COUNTS_TABLE_NAME + " SELECT "
+                    + breed + ", 0 WHERE " + breed + " IS NOT NULL; ";
+        }
+        statements += "UPDATE " + BREED_COUNTS_TABLE_NAME + " SET "
+                + PetStatsEntry.COLUMN_PET_COUNT + " = " + PetStatsEntry.COLUMN_PET_COUNT
+                + " " + sign + " 1 WHERE " + breedColumn + " = " + breed + "; ";
+        if (sign.equals("-")) {
+            statements += "DELETE FROM " + BREED_COUNTS_TABLE_NAME + " WHERE "
+                    + breedColumn + " = " + breed + " AND "
+                    + PetStatsEntry.COLUMN_PET_COUNT + " = 0; ";
+        }
+        return statements;
+    }
+
+    /**
+     * Returns the expressions that compute each of the stored statistics from the pets table,
+     * in the order of the statistics columns, counting breeds by the given breed column.
+     */
+    private static String[] statsAggregates(String breedColumn) {
+        return new String[] {
+                "COUNT(*)",
+                "TOTAL(" + PetEntry.COLUMN_PET_GENDER + " = " + PetEntry.GENDER_UNKNOWN + ")",
+                "TOTAL(" + PetEntry.COLUMN_PET_GENDER + " = " + PetEntry.GENDER_MALE + ")",
+                "TOTAL(" + PetEntry.COLUMN_PET_GENDER + " = " + PetEntry.GENDER_FEMALE + ")",
+                "TOTAL(" + PetEntry.COLUMN_PET_WEIGHT + ")",
+                "COUNT(DISTINCT " + breedColumn + ")" };
+    }
+
+    /**
+     * Check the statistics against the pets table, and rebuild them from scratch if they
+     * don't match. Return whether they matched.
+     */
+    public boolean checkStats() {
+        // Compare every stored statistic with the same statistic computed from scratch, and
+        // the stored breed count with the number of breeds being counted
+        String[] aggregates = statsAggregates(COLUMN_BREED_ID);
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < STATS_COLUMNS.length; i++) {
+            sql.append("(SELECT ").append(STATS_COLUMNS[i]).append(" FROM ")
+                    .append(PetStatsEntry.TABLE_NAME).append(") = (SELECT ")
+                    .append(aggregates[i]).append(" FROM ").append(PetEntry.TABLE_NAME)
+                    .append(") AND ");
+        }
+        sql.append("(SELECT ").append(PetStatsEntry.COLUMN_BREED_COUNT).append(" FROM ")
+                .append(PetStatsEntry.TABLE_NAME).append(") = (SELECT COUNT(*) FROM ")
+                .append(BREED_COUNTS_TABLE_NAME).append(")");
+
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            boolean consistent;
+            Cursor cursor = db.rawQuery(sql.toString(), null);
+            try {
+                consistent = cursor.moveToFirst() && cursor.getInt(0) == 1;
+            } finally {
+                cursor.close();
+            }
+            if (!consistent) {
+                rebuildStats(db, COLUMN_BREED_ID);
+            }
+            db.setTransactionSuccessful();
+            return consistent;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Recompute the statistics, and the pet counts of each breed, from the pets table, whose
+     * breeds are in the given breed column.
+     */
+    static void rebuildStats(SQLiteDatabase db, String breedColumn) {
+        db.execSQL("DELETE FROM " + BREED_COUNTS_TABLE_NAME + ";");
+        db.execSQL("INSERT INTO " + BREED_COUNTS_TABLE_NAME + " SELECT "
+                + breedColumn + ", COUNT(*) FROM " + PetEntry.TABLE_NAME
+                + " WHERE " + breedColumn + " IS NOT NULL GROUP BY " + breedColumn + ";");
+        db.execSQL("DELETE FROM " + PetStatsEntry.TABLE_NAME + ";");
+        db.execSQL("INSERT INTO " + PetStatsEntry.TABLE_NAME + " ("
+                + TextUtils.join(", ", STATS_COLUMNS) + ") SELECT "
+                + TextUtils.join(", ", statsAggregates(breedColumn)) + " FROM "
+                + PetEntry.TABLE_NAME + ";");
     }
 }
\ No newline at end of file
@@ -0,0 +1,117 @@
+package com.example.android.pets.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A named set of SQLite performance settings that {@link PetDbHelper} applies to shelter.db.
+ *
+ * A setting left null keeps the SQLite (or Android) default. The page size is a property of
+ * the database file, so it only applies when the database is created; the other settings
+ * apply to the connection every time it is configured, and can be changed on an open database.
+ *
+ * This class only depends on plain Java, so the benchmarks can apply the same settings to a
+ * database on a JVM.
+ */
+public final class PetDbProfile {
+
+    /** The stock settings, leaving every setting at its default */
+    public static final PetDbProfile STOCK = new PetDbProfile("stock", null, null, null, null,
+            null);
+
+    /**
+     * For devices with memory to spare, like the shelter kiosks: reads are served from a
+     * memory map of the file and a 16 MiB page cache, temporary tables and sorts stay in
+     * memory, and commits in the write-ahead log don't wait for the disk (a crash of the app
+     * loses nothing, a power cut may lose the last commits).
+     */
+    public static final PetDbProfile KIOSK = new PetDbProfile("kiosk", 256L * 1024 * 1024,
+            -16 * 1024, "NORMAL", "MEMORY", 8192);
+
+    /**
+     * For devices short of memory: no memory map, a 512 KiB page cache, temporary tables and
+     * sorts on disk, and every commit synced to the disk.
+     */
+    public static final PetDbProfile LOW_MEMORY = new PetDbProfile("low_memory", 0L, -512,
+            "FULL", "FILE", 4096);
+
+    /** Every profile, in the order they are listed */
+    private static final PetDbProfile[] PROFILES = { STOCK, KIOSK, LOW_MEMORY };
+
+    private final String mName;
+    private final Long mMmapSize;
+    private final Integer mCacheSize;
+    private final String mSynchronous;
+    private final String mTempStore;
+    private final Integer mPageSize;
+
+    /**
+     * @param name        name the profile is selected by
+     * @param mmapSize    most bytes of the database file read through a memory map
+     * @param cacheSize   page cache size, in pages if positive or in KiB if negative
+     * @param synchronous how commits are synced to the disk: OFF, NORMAL, FULL or EXTRA
+     * @param tempStore   where temporary tables and indexes are kept: DEFAULT, FILE or MEMORY
+     * @param pageSize    page size of a new database file, in bytes
+     */
+    private PetDbProfile(String name, Long mmapSize, Integer cacheSize, String synchronous,
+                         String tempStore, Integer pageSize) {
+        mName = name;
+        mMmapSize = mmapSize;
+        mCacheSize = cacheSize;
+        mSynchronous = synchronous;
+        mTempStore = tempStore;
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Returns the profile with the given name, throwing an {@link IllegalArgumentException} if
+     * there is none.
+     */
+    public static PetDbProfile forName(String name) {
+        for (PetDbProfile profile : PROFILES) {
+            if (profile.mName.equals(name)) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("Unknown database profile " + name);
+    }
+
+    /**
+     * Returns the name the profile is selected by.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Returns the page size for a new database file, or null to keep the default.
+     */
+    public Integer getPageSize() {
+        return mPageSize;
+    }
+
+    /**
+     * Returns the PRAGMA statements that apply the connection settings of the profile.
+     */
+    public List<String> getConnectionPragmas() {
+        List<String> pragmas = new ArrayList<>();
+        if (mMmapSize != null) {
+            pragmas.add("PRAGMA mmap_size=" + mMmapSize);
+        }
+        if (mCacheSize != null) {
+            pragmas.add("PRAGMA cache_size=" + mCacheSize);
+        }
+        if (mSynchronous != null) {
+            pragmas.add("PRAGMA synchronous=" + mSynchronous);
+        }
+        if (mTempStore != null) {
+            pragmas.add("PRAGMA temp_store=" + mTempStore);
+        }
+        return pragmas;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
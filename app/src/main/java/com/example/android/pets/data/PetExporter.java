@@ -0,0 +1,186 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes the whole pets table into a pipe, for {@link PetProvider#openTypedAssetFile}, as CSV
+ * ({@link PetEntry#CSV_TYPE}) or in the compact binary format ({@link PetEntry#BINARY_TYPE}).
+ *
+ * The table is read in chunks of {@link #CHUNK_SIZE} rows, each one starting after the last ID
+ * of the previous chunk, so memory use stays the same however many pets there are, and no
+ * read holds the database for long.
+ */
+final class PetExporter implements ContentProvider.PipeDataWriter<Object> {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetExporter.class.getSimpleName();
+
+    /** Encoding of the CSV, and of the strings in the binary format */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Number of rows read from the database at a time */
+    private static final int CHUNK_SIZE = 1000;
+
+    /** Columns written for every pet, in order */
+    private static final String[] COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    /** Database helper the pets are read from */
+    private final PetDbHelper mDbHelper;
+
+    PetExporter(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                Bundle opts, Object args) {
+        FileOutputStream stream = new FileOutputStream(output.getFileDescriptor());
+        try {
+            if (PetEntry.BINARY_TYPE.equals(mimeType)) {
+                writeBinary(new DataOutputStream(new BufferedOutputStream(stream)));
+            } else {
+                writeCsv(new OutputStreamWriter(new BufferedOutputStream(stream), UTF_8));
+            }
+        } catch (IOException e) {
+            // Most likely the reader closed its end of the pipe early
+            Log.w(LOG_TAG, "Failed to export pets for " + uri, e);
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to close the export pipe for " + uri, e);
+            }
+        }
+    }
+
+    /**
+     * Write the pets as CSV, with a header line naming the columns.
+     */
+    private void writeCsv(Writer writer) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i != 0) {
+                writer.write(',');
+            }
+            writer.write(COLUMNS[i]);
+        }
+        writer.write('\n');
+
+        long lastId = -1;
+        while (true) {
+            Cursor cursor = readChunk(lastId);
+            try {
+                if (cursor.getCount() == 0) {
+                    break;
+                }
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    writer.write(Long.toString(lastId));
+                    writer.write(',');
+                    writeCsvField(writer, cursor.getString(1));
+                    writer.write(',');
+                    if (!cursor.isNull(2)) {
+                        writeCsvField(writer, cursor.getString(2));
+                    }
+                    writer.write(',');
+                    writer.write(Integer.toString(cursor.getInt(3)));
+                    writer.write(',');
+                    writer.write(Integer.toString(cursor.getInt(4)));
+                    writer.write('\n');
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Write a text field, in double quotes if it contains a comma, a quote or a line break.
+     */
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                && value.indexOf('\r') < 0) {
+            writer.write(value);
+        } else {
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+    }
+
+    /**
+     * Write the pets in the binary format described by {@link PetEntry#BINARY_TYPE}.
+     */
+    private void writeBinary(DataOutputStream out) throws IOException {
+        out.writeInt(PetEntry.BINARY_MAGIC);
+        out.writeInt(PetEntry.BINARY_VERSION);
+
+        long lastId = -1;
+        while (true) {
+            Cursor cursor = readChunk(lastId);
+            try {
+                if (cursor.getCount() == 0) {
+                    break;
+                }
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    out.writeLong(lastId);
+                    writeString(out, cursor.getString(1));
+                    out.writeBoolean(!cursor.isNull(2));
+                    if (!cursor.isNull(2)) {
+                        writeString(out, cursor.getString(2));
+                    }
+                    out.writeByte(cursor.getInt(3));
+                    out.writeInt(cursor.getInt(4));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        // An ID of -1 marks the end of the pets
+        out.writeLong(-1);
+        out.flush();
+    }
+
+    /**
+     * Write a string as the number of bytes it takes in UTF-8, followed by those bytes, so that
+     * unlike {@link DataOutputStream#writeUTF} it can be of any length.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read the next chunk of pets, in ID order, starting after the given ID.
+     */
+    private Cursor readChunk(long afterId) {
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        return database.query(PetDbHelper.PETS_VIEW_NAME, COLUMNS, PetEntry._ID + " > ?",
+                new String[] { Long.toString(afterId) }, null, null, PetEntry._ID,
+                Integer.toString(CHUNK_SIZE));
+    }
+}
@@ -0,0 +1,366 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Imports pets from a CSV or JSON file into the pets table.
+ *
+ * The file is read and parsed a record at a time, so memory use doesn't depend on its size.
+ * Each record is checked with the same rules as {@link PetProvider} uses for a new pet, and the
+ * valid ones are written with {@link ContentResolver#bulkInsert} in chunks of
+ * {@link #CHUNK_SIZE}, each chunk in its own transaction. Records that fail the checks are
+ * skipped and reported in the {@link Result}.
+ *
+ * A CSV file starts with a header line naming its columns, which may be any of
+ * {@link PetEntry#COLUMN_PET_NAME}, {@link PetEntry#COLUMN_PET_BREED},
+ * {@link PetEntry#COLUMN_PET_GENDER} and {@link PetEntry#COLUMN_PET_WEIGHT}, in any order. An
+ * {@link PetEntry#_ID} column, as written by the CSV export, is ignored.
+ * A JSON file is an array of objects with the same names as keys.
+ */
+public final class PetImporter {
+
+    /** Number of pets written in one transaction */
+    private static final int CHUNK_SIZE = 500;
+
+    /** Most rejected records kept in the result, the rest are only counted */
+    private static final int MAX_REPORTED_REJECTIONS = 100;
+
+    /**
+     * Receives the progress of an import, after every chunk has been written.
+     */
+    public interface ProgressListener {
+        void onProgress(long recordsRead, long petsImported, long recordsRejected);
+    }
+
+    /**
+     * A record that was skipped, with its position in the file (the line of a CSV file, counting
+     * the header as line 1, or the index of a JSON object, counting from 1) and the reason.
+     */
+    public static final class Rejection {
+        public final long record;
+        public final String reason;
+
+        Rejection(long record, String reason) {
+            this.record = record;
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * Outcome of an import.
+     */
+    public static final class Result {
+        public final long recordsRead;
+        public final long petsImported;
+        public final long recordsRejected;
+
+        /** The first rejected records, at most {@link #MAX_REPORTED_REJECTIONS} of them */
+        public final List<Rejection> rejections;
+
+        Result(long recordsRead, long petsImported, long recordsRejected,
+               List<Rejection> rejections) {
+            this.recordsRead = recordsRead;
+            this.petsImported = petsImported;
+            this.recordsRejected = recordsRejected;
+            this.rejections = rejections;
+        }
+    }
+
+    /** Resolver the pets are written through */
+    private final ContentResolver mResolver;
+
+    /** Listener for the progress, or null */
+    private final ProgressListener mListener;
+
+    /** Valid pets waiting to be written */
+    private final ArrayList<ContentValues> mChunk = new ArrayList<>(CHUNK_SIZE);
+
+    /** The first rejected records */
+    private final ArrayList<Rejection> mRejections = new ArrayList<>();
+
+    private long mRecordsRead;
+    private long mPetsImported;
+    private long mRecordsRejected;
+
+    private PetImporter(ContentResolver resolver, ProgressListener listener) {
+        mResolver = resolver;
+        mListener = listener;
+    }
+
+    /**
+     * Import the pets from the given CSV file. The reader isn't closed.
+     */
+    public static Result importCsv(ContentResolver resolver, Reader reader,
+                                   ProgressListener listener) throws IOException {
+        PetImporter importer = new PetImporter(resolver, listener);
+        CsvParser parser = new CsvParser(reader);
+
+        List<String> header = parser.nextRecord();
+        if (header == null) {
+            return importer.finish();
+        }
+        String[] columns = header.toArray(new String[header.size()]);
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = columns[i].trim();
+        }
+
+        List<String> fields;
+        while ((fields = parser.nextRecord()) != null) {
+            long line = parser.getRecordLine();
+            if (fields.size() != columns.length) {
+                importer.reject(line, "Record has " + fields.size() + " fields, expected "
+                        + columns.length);
+                continue;
+            }
+            ContentValues values = new ContentValues();
+            String error = null;
+            for (int i = 0; i < columns.length && error == null; i++) {
+                error = putField(values, columns[i], fields.get(i));
+            }
+            if (error != null) {
+                importer.reject(line, error);
+            } else {
+                importer.add(line, values);
+            }
+        }
+        return importer.finish();
+    }
+
+    /**
+     * Import the pets from the given JSON file. The reader isn't closed.
+     */
+    public static Result importJson(ContentResolver resolver, Reader reader,
+                                    ProgressListener listener) throws IOException {
+        PetImporter importer = new PetImporter(resolver, listener);
+        JsonReader json = new JsonReader(reader);
+
+        json.beginArray();
+        for (long index = 1; json.hasNext(); index++) {
+            ContentValues values = new ContentValues();
+            String error = null;
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                String value;
+                if (json.peek() == JsonToken.NULL) {
+                    json.nextNull();
+                    value = null;
+                } else if (json.peek() == JsonToken.STRING || json.peek() == JsonToken.NUMBER) {
+                    value = json.nextString();
+                } else {
+                    json.skipValue();
+                    if (error == null) {
+                        error = "Unexpected value for " + name;
+                    }
+                    continue;
+                }
+                if (error == null) {
+                    error = putField(values, name, value);
+                }
+            }
+            json.endObject();
+
+            if (error != null) {
+                importer.reject(index, error);
+            } else {
+                importer.add(index, values);
+            }
+        }
+        json.endArray();
+        return importer.finish();
+    }
+
+    /**
+     * Put the given field into the values of a pet. Return an error message if the field can't
+     * be stored, or null if it was stored.
+     */
+    private static String putField(ContentValues values, String column, String value) {
+        if (PetEntry._ID.equals(column)) {
+            // Imported pets get new IDs, so that files exported by PetProvider can be imported
+            return null;
+        } else if (PetEntry.COLUMN_PET_NAME.equals(column) || PetEntry.COLUMN_PET_BREED.equals(column)) {
+            values.put(column, value == null || value.isEmpty() ? null : value);
+        } else if (PetEntry.COLUMN_PET_GENDER.equals(column)
+                || PetEntry.COLUMN_PET_WEIGHT.equals(column)) {
+            if (value == null || value.trim().isEmpty()) {
+                values.putNull(column);
+            } else {
+                try {
+                    values.put(column, Integer.parseInt(value.trim()));
+                } catch (NumberFormatException e) {
+                    return "Not a number for " + column + ": " + value;
+                }
+            }
+        } else {
+            return "Unknown column " + column;
+        }
+        return null;
+    }
+
+    /**
+     * Check the given pet, and queue it to be written if it's valid.
+     */
+    private void add(long record, ContentValues values) {
+        if (values.containsKey(PetEntry.COLUMN_PET_WEIGHT)
+                && values.get(PetEntry.COLUMN_PET_WEIGHT) == null) {
+            // An empty weight means the default, like a pet entered without one
+            values.remove(PetEntry.COLUMN_PET_WEIGHT);
+        }
+        try {
+            PetProvider.validateNewPet(values);
+        } catch (IllegalArgumentException e) {
+            reject(record, e.getMessage());
+            return;
+        }
+        mRecordsRead++;
+        mChunk.add(values);
+        if (mChunk.size() == CHUNK_SIZE) {
+            writeChunk();
+        }
+    }
+
+    /**
+     * Skip the given record, for the given reason.
+     */
+    private void reject(long record, String reason) {
+        mRecordsRead++;
+        mRecordsRejected++;
+        if (mRejections.size() < MAX_REPORTED_REJECTIONS) {
+            mRejections.add(new Rejection(record, reason));
+        }
+    }
+
+    /**
+     * Write the queued pets in one transaction, and report the progress.
+     */
+    private void writeChunk() {
+        if (!mChunk.isEmpty()) {
+            mPetsImported += mResolver.bulkInsert(PetEntry.CONTENT_URI,
+                    mChunk.toArray(new ContentValues[mChunk.size()]));
+            mChunk.clear();
+        }
+        if (mListener != null) {
+            mListener.onProgress(mRecordsRead, mPetsImported, mRecordsRejected);
+        }
+    }
+
+    /**
+     * Write the remaining pets and return the outcome of the import.
+     */
+    private Result finish() {
+        writeChunk();
+        return new Result(mRecordsRead, mPetsImported, mRecordsRejected, mRejections);
+    }
+
+    /**
+     * Incremental parser for CSV (RFC 4180): fields are separated by commas, and a field in
+     * double quotes may contain commas, line breaks and doubled quotes.
+     */
+    private static final class CsvParser {
+        private final Reader mReader;
+        private final char[] mBuffer = new char[8192];
+        private int mPosition;
+        private int mLimit;
+
+        /** Line the next character is on, and line the last record started on */
+        private long mLine = 1;
+        private long mRecordLine;
+
+        CsvParser(Reader reader) {
+            mReader = reader;
+        }
+
+        /** Returns the line the last record returned by {@link #nextRecord} started on. */
+        long getRecordLine() {
+            return mRecordLine;
+        }
+
+        /**
+         * Returns the fields of the next non-empty record, or null at the end of the file.
+         */
+        List<String> nextRecord() throws IOException {
+            int c;
+            // Skip empty lines
+            while ((c = read()) == '\n' || c == '\r') {
+                // Nothing to do, the line count is kept by read()
+            }
+            if (c == -1) {
+                return null;
+            }
+            mRecordLine = mLine;
+
+            ArrayList<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("Unterminated quoted field on line " + mRecordLine);
+                    } else if (c == '"') {
+                        c = read();
+                        if (c == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            continue;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n' || c == '\r' || c == -1) {
+                    fields.add(field.toString());
+                    if (c == '\r' && peek() == '\n') {
+                        read();
+                    }
+                    return fields;
+                } else {
+                    field.append((char) c);
+                }
+                c = read();
+            }
+        }
+
+        private int read() throws IOException {
+            if (mPosition == mLimit && !fill()) {
+                return -1;
+            }
+            char c = mBuffer[mPosition++];
+            if (c == '\n') {
+                mLine++;
+            }
+            return c;
+        }
+
+        private int peek() throws IOException {
+            if (mPosition == mLimit && !fill()) {
+                return -1;
+            }
+            return mBuffer[mPosition];
+        }
+
+        private boolean fill() throws IOException {
+            int count = mReader.read(mBuffer, 0, mBuffer.length);
+            if (count <= 0) {
+                return false;
+            }
+            mPosition = 0;
+            mLimit = count;
+            return true;
+        }
+    }
+}
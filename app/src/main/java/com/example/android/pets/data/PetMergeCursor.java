@@ -0,0 +1,345 @@
+package com.example.android.pets.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetShelterEntry;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cursor over the results of the same query run on several shelters, each already sorted by
+ * the same sort order, merged into one sorted result. Each row also has the ID of its shelter
+ * in the {@link PetShelterEntry#COLUMN_SHELTER_ID} column, after the columns of the query.
+ *
+ * The merge order is worked out once, when the cursor is created, by a k-way merge that only
+ * reads the sort columns; it is kept as two int arrays, and the rows themselves are read from
+ * the shelter cursors as the cursor is moved. Values are compared the way SQLite orders them:
+ * nulls first, then numbers, then text (case-insensitively for ASCII letters if the term says
+ * COLLATE NOCASE), then blobs. Without a sort order, the results are returned one shelter after
+ * another.
+ */
+final class PetMergeCursor extends AbstractCursor {
+
+    /** A term of a sort order: a column, maybe compared case-insensitively, and a direction */
+    private static final Pattern SORT_TERM = Pattern.compile(
+            "(\\w+)(\\s+COLLATE\\s+NOCASE)?(?:\\s+(ASC|DESC))?", Pattern.CASE_INSENSITIVE);
+
+    /** The results of each shelter */
+    private final Cursor[] mCursors;
+
+    /** ID of the shelter of each result */
+    private final long[] mShelterIds;
+
+    /** Names of the columns, with the shelter ID last */
+    private final String[] mColumnNames;
+
+    /** Result and position within it of each row, in merge order */
+    private final int[] mSources;
+    private final int[] mPositions;
+
+    /** Result the current row is read from */
+    private Cursor mCursor;
+
+    /** Shelter of the current row */
+    private long mShelterId;
+
+    /**
+     * @param cursors    the results of each shelter, with the same columns, each sorted by the
+     *                   given sort order
+     * @param shelterIds the ID of the shelter of each result
+     * @param sortOrder  the sort order of the results, made of column names (of the results)
+     *                   each optionally followed by COLLATE NOCASE and ASC or DESC, or null
+     */
+    PetMergeCursor(Cursor[] cursors, long[] shelterIds, String sortOrder) {
+        mCursors = cursors;
+        mShelterIds = shelterIds;
+
+        String[] columns = cursors[0].getColumnNames();
+        mColumnNames = new String[columns.length + 1];
+        System.arraycopy(columns, 0, mColumnNames, 0, columns.length);
+        mColumnNames[columns.length] = PetShelterEntry.COLUMN_SHELTER_ID;
+
+        int count = 0;
+        for (Cursor cursor : cursors) {
+            count += cursor.getCount();
+        }
+        mSources = new int[count];
+        mPositions = new int[count];
+        if (sortOrder == null) {
+            concatenate();
+        } else {
+            merge(parseSortOrder(sortOrder, cursors[0]));
+        }
+    }
+
+    /**
+     * A sort term: the index of its column, whether it compares text case-insensitively, and
+     * whether it is descending.
+     */
+    private static final class SortTerm {
+        final int column;
+        final boolean noCase;
+        final boolean descending;
+
+        SortTerm(int column, boolean noCase, boolean descending) {
+            this.column = column;
+            this.noCase = noCase;
+            this.descending = descending;
+        }
+    }
+
+    /**
+     * Returns the terms of the given sort order, whose columns have to be columns of the given
+     * cursor, throwing an {@link IllegalArgumentException} if it isn't a sort order the results
+     * can be merged by.
+     */
+    private static List<SortTerm> parseSortOrder(String sortOrder, Cursor cursor) {
+        List<SortTerm> terms = new ArrayList<>();
+        for (String term : sortOrder.split(",")) {
+            Matcher matcher = SORT_TERM.matcher(term.trim());
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException(
+                        "Cross-shelter results can't be sorted by " + term.trim());
+            }
+            int column = cursor.getColumnIndex(matcher.group(1));
+            if (column < 0) {
+                throw new IllegalArgumentException("Cross-shelter results can only be sorted by "
+                        + "their own columns, not " + matcher.group(1));
+            }
+            terms.add(new SortTerm(column, matcher.group(2) != null,
+                    matcher.group(3) != null
+                            && matcher.group(3).toUpperCase(Locale.US).equals("DESC")));
+        }
+        return terms;
+    }
+
+    /**
+     * Set the merge order to the rows of each result in turn.
+     */
+    private void concatenate() {
+        int row = 0;
+        for (int source = 0; source < mCursors.length; source++) {
+            for (int position = 0; position < mCursors[source].getCount(); position++) {
+                mSources[row] = source;
+                mPositions[row] = position;
+                row++;
+            }
+        }
+    }
+
+    /**
+     * Set the merge order by repeatedly taking the smallest of the current rows of the results,
+     * keeping the results positioned on their current rows in a heap.
+     */
+    private void merge(final List<SortTerm> terms) {
+        PriorityQueue<Integer> heads = new PriorityQueue<>(mCursors.length,
+                new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer a, Integer b) {
+                        int order = compareRows(mCursors[a], mCursors[b], terms);
+                        // Ties go to the earlier shelter, so the merge is stable
+                        return order != 0 ? order : a - b;
+                    }
+                });
+        for (int source = 0; source < mCursors.length; source++) {
+            if (mCursors[source].moveToFirst()) {
+                heads.add(source);
+            }
+        }
+
+        int row = 0;
+        while (!heads.isEmpty()) {
+            int source = heads.poll();
+            mSources[row] = source;
+            mPositions[row] = mCursors[source].getPosition();
+            row++;
+            if (mCursors[source].moveToNext()) {
+                heads.add(source);
+            }
+        }
+    }
+
+    /**
+     * Compares the current rows of the given cursors by the given sort terms.
+     */
+    private static int compareRows(Cursor a, Cursor b, List<SortTerm> terms) {
+        for (SortTerm term : terms) {
+            int order = compareValues(a, b, term.column, term.noCase);
+            if (order != 0) {
+                return term.descending ? -order : order;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compares the values of the given column in the current rows of the given cursors, in the
+     * order SQLite sorts them.
+     */
+    private static int compareValues(Cursor a, Cursor b, int column, boolean noCase) {
+        int typeA = a.getType(column);
+        int typeB = b.getType(column);
+        int rankA = typeRank(typeA);
+        int rankB = typeRank(typeB);
+        if (rankA != rankB) {
+            return rankA - rankB;
+        }
+        switch (typeA) {
+            case Cursor.FIELD_TYPE_NULL:
+                return 0;
+            case Cursor.FIELD_TYPE_INTEGER:
+            case Cursor.FIELD_TYPE_FLOAT:
+                if (typeA == Cursor.FIELD_TYPE_INTEGER && typeB == Cursor.FIELD_TYPE_INTEGER) {
+                    long longA = a.getLong(column);
+                    long longB = b.getLong(column);
+                    return longA < longB ? -1 : (longA == longB ? 0 : 1);
+                }
+                return Double.compare(a.getDouble(column), b.getDouble(column));
+            case Cursor.FIELD_TYPE_STRING:
+                return compareText(a.getString(column), b.getString(column), noCase);
+            default:
+                return compareBlobs(a.getBlob(column), b.getBlob(column));
+        }
+    }
+
+    /**
+     * Returns the rank of the given value type in the SQLite sort order, numbers ranking
+     * together.
+     */
+    private static int typeRank(int type) {
+        switch (type) {
+            case Cursor.FIELD_TYPE_NULL:
+                return 0;
+            case Cursor.FIELD_TYPE_INTEGER:
+            case Cursor.FIELD_TYPE_FLOAT:
+                return 1;
+            case Cursor.FIELD_TYPE_STRING:
+                return 2;
+            default:
+                return 3;
+        }
+    }
+
+    /**
+     * Compares the given text character by character, folding only the ASCII letters when
+     * comparing case-insensitively, like the NOCASE collation of SQLite.
+     */
+    static int compareText(String a, String b, boolean noCase) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char charA = a.charAt(i);
+            char charB = b.charAt(i);
+            if (noCase) {
+                if (charA >= 'A' && charA <= 'Z') {
+                    charA += 'a' - 'A';
+                }
+                if (charB >= 'A' && charB <= 'Z') {
+                    charB += 'a' - 'A';
+                }
+            }
+            if (charA != charB) {
+                return charA - charB;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    /**
+     * Compares the given blobs byte by byte, as unsigned bytes.
+     */
+    private static int compareBlobs(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int order = (a[i] & 0xff) - (b[i] & 0xff);
+            if (order != 0) {
+                return order;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int source = mSources[newPosition];
+        mCursor = mCursors[source];
+        mShelterId = mShelterIds[source];
+        return mCursor.moveToPosition(mPositions[newPosition]);
+    }
+
+    /**
+     * Returns whether the given column is the shelter ID, which isn't read from the results.
+     */
+    private boolean isShelterColumn(int column) {
+        return column == mColumnNames.length - 1;
+    }
+
+    @Override
+    public int getCount() {
+        return mSources.length;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        return isShelterColumn(column) ? String.valueOf(mShelterId) : mCursor.getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return isShelterColumn(column) ? (short) mShelterId : mCursor.getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return isShelterColumn(column) ? (int) mShelterId : mCursor.getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return isShelterColumn(column) ? mShelterId : mCursor.getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return isShelterColumn(column) ? mShelterId : mCursor.getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return isShelterColumn(column) ? mShelterId : mCursor.getDouble(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return isShelterColumn(column) ? null : mCursor.getBlob(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        return isShelterColumn(column) ? FIELD_TYPE_INTEGER : mCursor.getType(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return !isShelterColumn(column) && mCursor.isNull(column);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        for (Cursor cursor : mCursors) {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Collapses change notifications from {@link PetProvider}. The first change to a content URI
+ * starts a window, and every further change to the same URI within that window is folded into
+ * a single notification sent when the window ends. A burst of edits therefore makes each
+ * loader reload once instead of once per edit.
+ *
+ * Writers call {@link #commit} when a transaction ends, which by default sends the pending
+ * notifications at once, so listeners see committed changes without waiting for the window to
+ * end. Turning that off with {@link #setFlushOnCommit} leaves committed changes to the window
+ * too, so a stream of back-to-back transactions shares one notification per window instead of
+ * sending one per transaction, at the cost of listeners hearing of each commit up to a window
+ * later.
+ */
+final class PetNotificationCoalescer {
+
+    /** Resolver the notifications are sent through */
+    private final ContentResolver mResolver;
+
+    /** Handler that ends the window */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** Sends the pending notifications when the window ends */
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /** URIs with a pending notification, in the order they first changed */
+    private final Set<Uri> mPendingUris = new LinkedHashSet<>();
+
+    /** Length of the window in milliseconds, or 0 to send every notification immediately */
+    private long mWindowMillis;
+
+    /** Whether the pending notifications are sent at the end of each transaction */
+    private boolean mFlushOnCommit = true;
+
+    /** Number of notifications sent to the resolver */
+    private long mDeliveredCount;
+
+    /** Number of notifications folded into one that was already pending */
+    private long mSuppressedCount;
+
+    PetNotificationCoalescer(ContentResolver resolver, long windowMillis) {
+        mResolver = resolver;
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * Set the length of the window in milliseconds. A window of 0 sends every notification
+     * immediately. Any pending notifications are sent first.
+     */
+    void setWindowMillis(long windowMillis) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("Window requires a valid length");
+        }
+        flush();
+        synchronized (this) {
+            mWindowMillis = windowMillis;
+        }
+    }
+
+    /**
+     * Set whether the pending notifications are sent as soon as a transaction ends, rather than
+     * when the window ends. Any pending notifications are sent first.
+     */
+    void setFlushOnCommit(boolean flushOnCommit) {
+        flush();
+        synchronized (this) {
+            mFlushOnCommit = flushOnCommit;
+        }
+    }
+
+    /**
+     * Notify the listeners of the given URI that its data has changed, at the end of the
+     * current window.
+     */
+    void notifyChange(Uri uri) {
+        synchronized (this) {
+            if (mWindowMillis > 0) {
+                if (!mPendingUris.add(uri)) {
+                    mSuppressedCount++;
+                } else if (mPendingUris.size() == 1) {
+                    mHandler.postDelayed(mFlushRunnable, mWindowMillis);
+                }
+                return;
+            }
+            mDeliveredCount++;
+        }
+        mResolver.notifyChange(uri, null);
+    }
+
+    /**
+     * A transaction has ended: send all of the pending notifications now, unless they are left
+     * to the window (see {@link #setFlushOnCommit}).
+     */
+    void commit() {
+        synchronized (this) {
+            if (!mFlushOnCommit) {
+                return;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Send all of the pending notifications now.
+     */
+    void flush() {
+        ArrayList<Uri> uris;
+        synchronized (this) {
+            if (mPendingUris.isEmpty()) {
+                return;
+            }
+            mHandler.removeCallbacks(mFlushRunnable);
+            uris = new ArrayList<>(mPendingUris);
+            mPendingUris.clear();
+            mDeliveredCount += uris.size();
+        }
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+        }
+    }
+
+    /** Returns the number of notifications sent to the resolver. */
+    synchronized long getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    /** Returns the number of notifications folded into one that was already pending. */
+    synchronized long getSuppressedCount() {
+        return mSuppressedCount;
+    }
+}
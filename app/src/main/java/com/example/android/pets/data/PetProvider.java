@@ -1,15 +1,44 @@
 package com.example.android.pets.data;
 
+import android.content.ClipDescription;
+import android.content.ComponentCallbacks2;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
+import com.example.android.pets.data.PetContract.PetChangeEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetShelterEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
         * {@link ContentProvider} for Pets app.
@@ -25,6 +54,49 @@ public class PetProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single pet in the pets table */
     private static final int PET_ID = 101;
 
+    /** URI matcher code for the content URI for a full-text search of the pets table */
+    private static final int PET_SEARCH = 102;
+
+    /** URI matcher code for the content URI for the pet statistics */
+    private static final int PET_STATS = 103;
+
+    /** URI matcher code for the content URI for the log of changes to the pets table */
+    private static final int PET_CHANGES = 104;
+
+    /** URI matcher code for the content URI for the pets of one shelter */
+    private static final int SHELTER_PETS = 105;
+
+    /** URI matcher code for the content URI for a single pet of one shelter */
+    private static final int SHELTER_PET_ID = 106;
+
+    /** URI matcher code for the content URI for the pets of every shelter */
+    private static final int ALL_SHELTER_PETS = 107;
+
+    /** Selection for the single pet whose ID is given as the selection argument */
+    private static final String SELECTION_BY_ID = PetEntry._ID + "=?";
+
+    /** Default window, in milliseconds, within which change notifications are collapsed */
+    private static final long NOTIFICATION_WINDOW_MILLIS = 100;
+
+    /** Most bytes, estimated, that cached query results may use */
+    private static final long QUERY_CACHE_BYTES = 1024 * 1024;
+
+    /** Default time, in milliseconds, that a query has to take to be logged as slow */
+    private static final long SLOW_QUERY_THRESHOLD_MILLIS = 50;
+
+    /** Time after which a shelter database that isn't used is closed when memory runs low */
+    private static final long SHELTER_IDLE_MILLIS = 60 * 1000;
+
+    /** Number of shelters queried at the same time by a cross-shelter query */
+    private static final int FAN_OUT_THREADS = 4;
+
+    /** Maximum number of rows written in one transaction by {@link #bulkInsert} */
+    private static final int BULK_INSERT_CHUNK_SIZE = 500;
+
+    /** Columns of a pets query without a projection */
+    private static final String[] PET_COLUMNS = { PetEntry._ID, PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT };
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -51,35 +123,176 @@ public class PetProvider extends ContentProvider {
         // For example, "content://com.example.android.pets/pets/3" matches, but
         // "content://com.example.android.pets/pets" (without a number at the end) doesn't match.
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PETS_PATH + "/#", PET_ID);
+
+        // The content URI of the form "content://com.example.android.pets/pets/search/*" will map
+        // to the integer code {@link #PET_SEARCH}. This URI is used to search the names and
+        // breeds of the pets, where "*" is the (possibly partially typed) search text.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PETS_PATH + "/" + PetContract.SEARCH_PATH + "/*", PET_SEARCH);
+
+        // The content URI of the form "content://com.example.android.pets/pets/stats" will map
+        // to the integer code {@link #PET_STATS}. This URI is used to read the summary
+        // statistics of the pets table, as a single row.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PETS_PATH + "/" + PetContract.STATS_PATH, PET_STATS);
+
+        // The content URI of the form "content://com.example.android.pets/pets/changes" will map
+        // to the integer code {@link #PET_CHANGES}. This URI is used to read the changes made to
+        // the pets table after a given sequence number.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PETS_PATH + "/" + PetContract.CHANGES_PATH, PET_CHANGES);
+
+        // The content URIs of the form "content://com.example.android.pets/shelters/#/pets" and
+        // ".../shelters/#/pets/#" will map to the integer codes {@link #SHELTER_PETS} and
+        // {@link #SHELTER_PET_ID}. They are the same as the pets URIs above, but for the pets of
+        // the shelter whose ID is the first "#", kept in a database of their own.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.SHELTERS_PATH + "/#/" + PetContract.PETS_PATH, SHELTER_PETS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.SHELTERS_PATH + "/#/" + PetContract.PETS_PATH + "/#", SHELTER_PET_ID);
+
+        // The content URI of the form "content://com.example.android.pets/shelters/pets" will map
+        // to the integer code {@link #ALL_SHELTER_PETS}. This URI is used to query the pets of
+        // every shelter at once.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.SHELTERS_PATH + "/" + PetContract.PETS_PATH, ALL_SHELTER_PETS);
+    }
+
+    /**
+     * Projection map for the pet statistics, which adds the mean weight computed from the
+     * stored total weight and pet count.
+     */
+    private static final HashMap<String, String> sStatsProjectionMap = new HashMap<>();
+
+    static {
+        for (String column : new String[] { PetStatsEntry.COLUMN_PET_COUNT,
+                PetStatsEntry.COLUMN_UNKNOWN_COUNT, PetStatsEntry.COLUMN_MALE_COUNT,
+                PetStatsEntry.COLUMN_FEMALE_COUNT, PetStatsEntry.COLUMN_TOTAL_WEIGHT,
+                PetStatsEntry.COLUMN_BREED_COUNT }) {
+            sStatsProjectionMap.put(column, column);
+        }
+        sStatsProjectionMap.put(PetStatsEntry.COLUMN_MEAN_WEIGHT, "CASE WHEN "
+                + PetStatsEntry.COLUMN_PET_COUNT + " = 0 THEN 0 ELSE "
+                + PetStatsEntry.COLUMN_TOTAL_WEIGHT + " * 1.0 / " + PetStatsEntry.COLUMN_PET_COUNT
+                + " END AS " + PetStatsEntry.COLUMN_MEAN_WEIGHT);
     }
 
     /** Database helper object */
     private PetDbHelper mDbHelper;
 
+    /**
+     * Content URIs changed by the {@link #applyBatch} or write queue batch running on the
+     * current thread, or null when no batch is running. Notifications are held back until the
+     * batch has been committed.
+     */
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+
+    /**
+     * Engine the pets of shelter.db are written through. The provider invalidates its cache
+     * and notifies its observers after every write made through it.
+     */
+    private SqlitePetStore mStore;
+
+    /** Collapses the change notifications sent for bursts of writes */
+    private PetNotificationCoalescer mNotifications;
+
+    /** Results of recent queries, invalidated on every write */
+    private final PetQueryCache mQueryCache = new PetQueryCache(QUERY_CACHE_BYTES);
+
+    /** Queue that commits concurrent single writes together */
+    private PetWriteQueue mWriteQueue;
+
+    /** Latency and row counts of the entry points, per operation and URI matcher code */
+    private final PetProviderMetrics mMetrics = new PetProviderMetrics(
+            new String[] { "pets", "pets/#", "pets/search", "pets/stats", "pets/changes",
+                    "shelters/#/pets", "shelters/#/pets/#", "shelters/pets" });
+
+    /** Recent queries that took longer than the slow query threshold, with their plans */
+    private final PetSlowQueryLog mSlowQueries =
+            new PetSlowQueryLog(SLOW_QUERY_THRESHOLD_MILLIS);
+
+    /** Databases of the individual shelters */
+    private PetShelterPool mShelters;
+
+    /** Runs the queries of a cross-shelter query on several shelters at the same time */
+    private final ExecutorService mFanOutExecutor = Executors.newFixedThreadPool(FAN_OUT_THREADS,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PetProvider fan-out");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
     @Override
     public boolean onCreate() {
         mDbHelper = new PetDbHelper(getContext());
+        mStore = new SqlitePetStore(mDbHelper);
+        mShelters = new PetShelterPool(getContext());
+        mNotifications = new PetNotificationCoalescer(getContext().getContentResolver(),
+                NOTIFICATION_WINDOW_MILLIS);
+        mWriteQueue = new PetWriteQueue(mDbHelper, new PetWriteQueue.BatchListener() {
+            @Override
+            public void onBatchStarted() {
+                deferNotifications();
+            }
+
+            @Override
+            public void onBatchFinished(boolean committed) {
+                mDbHelper.onTransactionEnded(committed);
+                sendDeferredNotifications();
+            }
+        });
         return true;
     }
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long start = System.nanoTime();
+        int match = sUriMatcher.match(uri);
+        int rows = 0;
+        try {
+            Cursor cursor = runQuery(uri, match, projection, selection, selectionArgs, sortOrder);
+            // Counting the rows runs the query, so the latency includes its execution
+            rows = cursor.getCount();
+            return cursor;
+        } finally {
+            mMetrics.record(PetProviderMetrics.QUERY, match - PETS, start, rows);
+        }
+    }
+
+    /**
+     * Run the given query, whose URI has the given matcher code.
+     */
+    private Cursor runQuery(Uri uri, int match, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder) {
+        // Serve the result from the cache if the same query has been run since the last write
+        PetQueryCache.Key cacheKey = PetQueryCache.key(match, uri.toString(), projection,
+                selection, selectionArgs, sortOrder);
+        Cursor cursor = mQueryCache.get(cacheKey);
+        if (cursor != null) {
+            cursor.setNotificationUri(getContext().getContentResolver(), uri);
+            return cursor;
+        }
+        long generation = mQueryCache.getGeneration();
+
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
-        // This cursor will hold the result of the query
-        Cursor cursor;
-
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
-                // For the PETS code, query the pets table directly with the given
-                // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the pets table.
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                // For the PETS code, query the pets (through the view that joins in their
+                // breed) with the given projection, selection, selection arguments, and sort
+                // order. The cursor could contain multiple rows of the pets table.
+                if (uri.getQueryParameter(PetEntry.QUERY_PARAM_LIMIT) != null) {
+                    cursor = queryPetsPage(database, uri, projection, selection, selectionArgs,
+                            sortOrder);
+                    break;
+                }
+                cursor = queryTable(database, PetDbHelper.PETS_VIEW_NAME, projection,
+                        selection, selectionArgs, sortOrder, null);
                 break;
             case PET_ID:
                 // For the PET_ID code, extract out the ID from the URI.
@@ -90,18 +303,48 @@ public class PetProvider extends ContentProvider {
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
-                selection = PetEntry._ID + "=?";
+                selection = SELECTION_BY_ID;
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
 
                 // This will perform a query on the pets table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = queryTable(database, PetDbHelper.PETS_VIEW_NAME, projection,
+                        selection, selectionArgs, sortOrder, null);
+                break;
+            case PET_SEARCH:
+                cursor = searchPets(database, uri.getLastPathSegment(), projection, selection,
+                        selectionArgs, sortOrder);
+                break;
+            case PET_STATS:
+                // For the PET_STATS code, read the single row of statistics that the database
+                // keeps up to date, so this costs the same however many pets there are.
+                SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+                builder.setTables(PetStatsEntry.TABLE_NAME);
+                builder.setProjectionMap(sStatsProjectionMap);
+                cursor = rawQuery(database,
+                        builder.buildQuery(projection, selection, null, null, sortOrder, null),
+                        selectionArgs);
+                break;
+            case PET_CHANGES:
+                // For the PET_CHANGES code, return the changes after the sequence number given
+                // in the URI (or all of them), oldest first
+                cursor = queryChanges(database, uri, projection, selection, selectionArgs);
+                break;
+            case SHELTER_PETS:
+            case SHELTER_PET_ID:
+                cursor = queryShelter(uri, match, projection, selection, selectionArgs,
+                        sortOrder);
+                break;
+            case ALL_SHELTER_PETS:
+                cursor = queryAllShelters(projection, selection, selectionArgs, sortOrder);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
 
+        // Keep the result for the next time the same query is run
+        cursor = mQueryCache.put(cacheKey, generation, cursor);
+
         // Set notification URI on the Cursor,
         // so we know what content URI the Cursor was created for.
         // If the data at this URI changes, then we know we need to update the Cursor.
@@ -111,12 +354,342 @@ public class PetProvider extends ContentProvider {
         return cursor;
     }
 
+    /**
+     * Query one page of the pets table, as described by the paging parameters of the given URI
+     * (see {@link PetEntry#QUERY_PARAM_LIMIT}). The page starts right after the given sort key
+     * and ID, so the database seeks straight to it instead of counting past earlier pages.
+     */
+    private Cursor queryPetsPage(SQLiteDatabase database, Uri uri, String[] projection,
+                                 String selection, String[] selectionArgs, String sortOrder) {
+        if (sortOrder != null) {
+            throw new IllegalArgumentException("Paged queries can't have a sort order " + uri);
+        }
+
+        // Check the limit and the sort key
+        int limit;
+        try {
+            limit = Integer.parseInt(uri.getQueryParameter(PetEntry.QUERY_PARAM_LIMIT));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Page requires a valid limit " + uri);
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page requires a valid limit " + uri);
+        }
+        String sortKey = uri.getQueryParameter(PetEntry.QUERY_PARAM_SORT_KEY);
+        if (sortKey == null) {
+            sortKey = PetEntry._ID;
+        }
+        String key;
+        if (PetEntry._ID.equals(sortKey)) {
+            key = null;
+        } else if (PetEntry.COLUMN_PET_NAME.equals(sortKey)) {
+            key = PetEntry.COLUMN_PET_NAME + " COLLATE NOCASE";
+        } else if (PetEntry.COLUMN_PET_GENDER.equals(sortKey)
+                || PetEntry.COLUMN_PET_WEIGHT.equals(sortKey)) {
+            key = sortKey;
+        } else {
+            throw new IllegalArgumentException("Page can't be sorted by " + sortKey);
+        }
+
+        // Order by the sort key, then by ID so that the order is total
+        String pageOrder = (key == null ? "" : key + ", ") + PetEntry._ID;
+
+        // Start after the last pet of the previous page, if there was one
+        ArrayList<String> args = new ArrayList<>();
+        String pageSelection = selection;
+        if (selectionArgs != null) {
+            Collections.addAll(args, selectionArgs);
+        }
+        String afterId = uri.getQueryParameter(PetEntry.QUERY_PARAM_AFTER_ID);
+        if (afterId != null) {
+            String seek;
+            if (key == null) {
+                seek = PetEntry._ID + " > ?";
+                args.add(afterId);
+            } else {
+                String afterKey = uri.getQueryParameter(PetEntry.QUERY_PARAM_AFTER_KEY);
+                if (afterKey == null) {
+                    throw new IllegalArgumentException("Page requires the previous key " + uri);
+                }
+                // The leading range on the key lets the database seek the index on the key to
+                // the previous page's key; the rest only skips the ties it already returned
+                seek = key + " >= ? AND (" + key + " > ? OR " + PetEntry._ID + " > ?)";
+                args.add(afterKey);
+                args.add(afterKey);
+                args.add(afterId);
+            }
+            pageSelection = selection == null ? seek : "(" + selection + ") AND (" + seek + ")";
+        }
+
+        return queryTable(database, PetDbHelper.PETS_VIEW_NAME, projection, pageSelection,
+                args.toArray(new String[args.size()]), pageOrder, String.valueOf(limit));
+    }
+
+    /**
+     * Query the change log for the changes after the sequence number given by the
+     * {@link PetChangeEntry#QUERY_PARAM_SINCE} parameter of the URI, in sequence order.
+     */
+    private Cursor queryChanges(SQLiteDatabase database, Uri uri, String[] projection,
+                                String selection, String[] selectionArgs) {
+        String since = uri.getQueryParameter(PetChangeEntry.QUERY_PARAM_SINCE);
+        if (since == null) {
+            since = "0";
+        }
+        try {
+            Long.parseLong(since);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Changes require a valid sequence number " + uri);
+        }
+
+        String changesSelection = PetChangeEntry.COLUMN_SEQUENCE + " > ?";
+        ArrayList<String> args = new ArrayList<>();
+        args.add(since);
+        if (selection != null) {
+            changesSelection += " AND (" + selection + ")";
+            if (selectionArgs != null) {
+                Collections.addAll(args, selectionArgs);
+            }
+        }
+        return queryTable(database, PetChangeEntry.TABLE_NAME, projection, changesSelection,
+                args.toArray(new String[args.size()]), PetChangeEntry.COLUMN_SEQUENCE, null);
+    }
+
+    /**
+     * Query the pets of the shelter given by the URI, or the single pet given by it, in the
+     * database of that shelter. The shelter stays in use until the returned cursor is closed.
+     * A shelter without a database has no pets, and no database is created for it.
+     */
+    private Cursor queryShelter(Uri uri, int match, String[] projection, String selection,
+                                String[] selectionArgs, String sortOrder) {
+        if (match == SHELTER_PET_ID) {
+            selection = SELECTION_BY_ID;
+            selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+        }
+
+        long shelterId = getShelterId(uri);
+        if (!mShelters.exists(shelterId)) {
+            return new MatrixCursor(projection != null ? projection : PET_COLUMNS, 0);
+        }
+        PetDbHelper shelter = mShelters.acquire(shelterId);
+        boolean queried = false;
+        try {
+            Cursor cursor = queryTable(shelter.getReadableDatabase(),
+                    PetDbHelper.PETS_VIEW_NAME, projection, selection, selectionArgs, sortOrder,
+                    null);
+            queried = true;
+            return mShelters.releaseOnClose(shelterId, cursor);
+        } finally {
+            if (!queried) {
+                mShelters.release(shelterId);
+            }
+        }
+    }
+
+    /**
+     * Run the same query on the pets of every shelter, on several threads at once, and merge
+     * the results by the sort order (see {@link PetShelterEntry#CONTENT_URI}).
+     */
+    private Cursor queryAllShelters(final String[] projection, final String selection,
+                                    final String[] selectionArgs, final String sortOrder) {
+        List<Long> shelterIds = mShelters.getShelterIds();
+        if (shelterIds.isEmpty()) {
+            String[] columns = projection != null ? projection : PET_COLUMNS;
+            String[] columnsWithShelter = new String[columns.length + 1];
+            System.arraycopy(columns, 0, columnsWithShelter, 0, columns.length);
+            columnsWithShelter[columns.length] = PetShelterEntry.COLUMN_SHELTER_ID;
+            return new MatrixCursor(columnsWithShelter, 0);
+        }
+
+        List<Future<Cursor>> results = new ArrayList<>();
+        for (final long shelterId : shelterIds) {
+            results.add(mFanOutExecutor.submit(new Callable<Cursor>() {
+                @Override
+                public Cursor call() {
+                    Uri uri = PetShelterEntry.buildPetsUri(shelterId);
+                    return queryShelter(uri, SHELTER_PETS, projection, selection,
+                            selectionArgs, sortOrder);
+                }
+            }));
+        }
+
+        // Wait for every shelter, even after one has failed, so that no cursor is left open
+        Cursor[] cursors = new Cursor[results.size()];
+        long[] cursorShelterIds = new long[results.size()];
+        RuntimeException failure = null;
+        boolean interrupted = false;
+        for (int i = 0; i < results.size(); i++) {
+            cursorShelterIds[i] = shelterIds.get(i);
+            while (true) {
+                try {
+                    cursors[i] = results.get(i).get();
+                    break;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof RuntimeException
+                                ? (RuntimeException) e.getCause()
+                                : new IllegalStateException("Shelter query failed", e.getCause());
+                    }
+                    break;
+                } catch (InterruptedException e) {
+                    // The shelter queries are short, keep waiting and interrupt again after
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+            return new PetMergeCursor(cursors, cursorShelterIds, sortOrder);
+        } catch (RuntimeException e) {
+            for (Cursor cursor : cursors) {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the ID of the shelter given by a shelter content URI.
+     */
+    private static long getShelterId(Uri uri) {
+        return Long.parseLong(uri.getPathSegments().get(1));
+    }
+
+    /**
+     * Search the pet names and breeds for the given text, using the full-text index. Every word
+     * of the text is matched as a prefix. Unless a sort order is given, pets whose name equals
+     * the text come first, then pets whose name starts with it, then the remaining matches.
+     * Text without any words, such as only spaces or quotes, matches no pets.
+     */
+    private Cursor searchPets(SQLiteDatabase database, String text, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder) {
+        // Turn the text into an FTS prefix query, quoting each word so that any FTS syntax
+        // the user typed is searched for literally
+        StringBuilder match = new StringBuilder();
+        for (String word : text.replace("\"", " ").trim().split("\\s+")) {
+            if (word.length() != 0) {
+                match.append('"').append(word).append("*\" ");
+            }
+        }
+        if (match.length() == 0) {
+            // SQLite rejects an empty MATCH expression
+            return new MatrixCursor(projection != null ? projection : PET_COLUMNS, 0);
+        }
+
+        // Restrict the rows to the pets found in the full-text index
+        String searchSelection = PetEntry._ID + " IN (SELECT docid FROM "
+                + PetDbHelper.FTS_TABLE_NAME + " WHERE " + PetDbHelper.FTS_TABLE_NAME
+                + " MATCH ?)";
+        ArrayList<String> args = new ArrayList<>();
+        args.add(match.toString().trim());
+        if (selection != null) {
+            searchSelection += " AND (" + selection + ")";
+            if (selectionArgs != null) {
+                Collections.addAll(args, selectionArgs);
+            }
+        }
+
+        // Rank the matches by how closely the name matches the search text
+        if (sortOrder == null) {
+            sortOrder = "CASE WHEN " + PetEntry.COLUMN_PET_NAME + " = ? COLLATE NOCASE THEN 0"
+                    + " WHEN " + PetEntry.COLUMN_PET_NAME + " LIKE ? THEN 1 ELSE 2 END, "
+                    + PetEntry.COLUMN_PET_NAME + " COLLATE NOCASE";
+            args.add(text.trim());
+            args.add(text.trim() + "%");
+        }
+
+        return queryTable(database, PetDbHelper.PETS_VIEW_NAME, projection, searchSelection,
+                args.toArray(new String[args.size()]), sortOrder, null);
+    }
+
+    /**
+     * Query the given table, like {@link SQLiteDatabase#query}, through {@link #rawQuery} so
+     * that the query is logged if it is slow.
+     */
+    private Cursor queryTable(SQLiteDatabase database, String table, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder,
+                              String limit) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, table, projection, selection,
+                null, null, sortOrder, limit);
+        return rawQuery(database, sql, selectionArgs);
+    }
+
+    /**
+     * Run the given query and execute it right away, logging it with its plan in
+     * {@link #mSlowQueries} if it took longer than the slow query threshold. A caller-supplied
+     * selection or sort order that no index serves shows up there as a full scan or a
+     * temporary B-tree.
+     */
+    private Cursor rawQuery(SQLiteDatabase database, String sql, String[] selectionArgs) {
+        long start = System.nanoTime();
+        Cursor cursor = database.rawQuery(sql, selectionArgs);
+        // Counting the rows runs the query, so the time includes its execution
+        cursor.getCount();
+        long duration = System.nanoTime() - start;
+        if (mSlowQueries.isSlow(duration)) {
+            mSlowQueries.record(database, sql, selectionArgs, duration);
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns whether a write from the current thread should run directly instead of going
+     * through the write queue: the writer thread itself, and the writes of an
+     * {@link #applyBatch}, already run inside a transaction.
+     */
+    private boolean isDirectWrite() {
+        return mPendingNotifications.get() != null || mWriteQueue.isWriterThread();
+    }
+
+    /**
+     * Returns whether the given URI is in the database of a shelter. Writes to a shelter run
+     * directly on its own database instead of through the write queue of shelter.db, so
+     * writes to different shelters don't wait for each other.
+     */
+    private static boolean isShelterUri(Uri uri) {
+        int match = sUriMatcher.match(uri);
+        return match == SHELTER_PETS || match == SHELTER_PET_ID;
+    }
+
     @Override
-    public Uri insert(Uri uri, ContentValues contentValues) {
+    public Uri insert(final Uri uri, final ContentValues contentValues) {
+        long start = System.nanoTime();
+        Uri newUri = null;
+        try {
+            if (isDirectWrite() || isShelterUri(uri)) {
+                newUri = applyInsert(uri, contentValues);
+            } else {
+                newUri = mWriteQueue.submit(new PetWriteQueue.Write<Uri>() {
+                    @Override
+                    public Uri run() {
+                        return applyInsert(uri, contentValues);
+                    }
+                });
+            }
+            return newUri;
+        } finally {
+            mMetrics.record(PetProviderMetrics.INSERT, sUriMatcher.match(uri) - PETS, start,
+                    newUri == null ? 0 : 1);
+        }
+    }
+
+    /**
+     * Insert the given values at the given URI, on the current thread.
+     */
+    private Uri applyInsert(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
                 return insertPet(uri, contentValues);
+            case SHELTER_PETS:
+                return insertShelterPet(uri, contentValues);
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
@@ -127,58 +700,294 @@ public class PetProvider extends ContentProvider {
      * for that specific row in the database.
      */
     private Uri insertPet(Uri uri, ContentValues values) {
-        // Check that the name is not null
-        String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("Pet requires a name");
+        // Check that the values describe a valid new pet
+        validateNewPet(values);
+
+        // Insert the new pet with the given values
+        long id = mStore.insert(values);
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
         }
 
-        // Check that the gender is valid
-        Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
-        if (gender == null || !PetEntry.isValidGender(gender)) {
-            throw new IllegalArgumentException("Pet requires valid gender");
+        // Notify all listeners that the data has changed for the pet content URI
+        notifyChange(uri);
+
+        // Return the new URI with the ID (of the newly inserted row) appended at the end
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Insert a pet with the given content values into the database of the shelter given by
+     * the URI. Return the new content URI for that pet within the shelter.
+     */
+    private Uri insertShelterPet(Uri uri, ContentValues values) {
+        // Check that the values describe a valid new pet
+        validateNewPet(values);
+
+        long shelterId = getShelterId(uri);
+        PetDbHelper shelter = mShelters.acquire(shelterId);
+        long id;
+        try {
+            id = shelter.getWritableDatabase().insert(PetEntry.TABLE_NAME, null,
+                    shelter.toStoredValues(values));
+        } finally {
+            mShelters.release(shelterId);
         }
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        notifyShelterChange(uri);
+        return ContentUris.withAppendedId(uri, id);
+    }
 
-        // If the weight is provided, check that it's greater than or equal to 0 kg
-        Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
-        if (weight != null && weight < 0) {
-            throw new IllegalArgumentException("Pet requires valid weight");
+    /**
+     * Insert many pets at once. Every row is validated before anything is written, the rows are
+     * written in transactions of at most {@link #BULK_INSERT_CHUNK_SIZE} rows, and listeners are
+     * notified only once for the whole batch. Return the number of rows inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long start = System.nanoTime();
+        int rowsInserted = 0;
+        try {
+            rowsInserted = applyBulkInsert(uri, values);
+            return rowsInserted;
+        } finally {
+            mMetrics.record(PetProviderMetrics.BULK_INSERT, sUriMatcher.match(uri) - PETS, start,
+                    rowsInserted);
         }
+    }
 
-        // No need to check the breed, any value is valid (including null).
+    /**
+     * Insert the given pets for {@link #bulkInsert}.
+     */
+    private int applyBulkInsert(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        if (match != PETS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
+        // Check every row up front, so that one bad row can't leave half a batch behind
+        for (ContentValues petValues : values) {
+            validateNewPet(petValues);
+        }
 
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Insert the new pet with the given values
-        long id = database.insert(PetEntry.TABLE_NAME, null, values);
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+        // Track the number of rows that were inserted
+        int rowsInserted = 0;
+
+        // Write the rows in bounded chunks. Each chunk is a single transaction (and a single
+        // journal sync) instead of one per row, while other writers still get a turn between
+        // chunks of a very large batch.
+        for (int start = 0; start < values.length; start += BULK_INSERT_CHUNK_SIZE) {
+            int end = Math.min(values.length, start + BULK_INSERT_CHUNK_SIZE);
+            boolean committed = false;
+            try {
+                database.beginTransaction();
+                try {
+                    for (int i = start; i < end; i++) {
+                        long id = mStore.insert(values[i]);
+                        if (id == -1) {
+                            Log.e(LOG_TAG, "Failed to insert row " + i + " for " + uri);
+                        } else {
+                            rowsInserted++;
+                        }
+                    }
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+                committed = true;
+            } finally {
+                mDbHelper.onTransactionEnded(committed);
+                mQueryCache.invalidate();
+            }
         }
 
-        // Notify all listeners that the data has changed for the pet content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        // Notify all listeners once that the data has changed for the pet content URI, right
+        // away since the batch has been committed
+        if (rowsInserted != 0) {
+            notifyChange(uri);
+            mNotifications.commit();
+        }
 
-        // Return the new URI with the ID (of the newly inserted row) appended at the end
-        return ContentUris.withAppendedId(uri, id);
+        // A large batch leaves a long write-ahead log behind, so fold it back into the database
+        if (rowsInserted >= BULK_INSERT_CHUNK_SIZE) {
+            mDbHelper.checkpoint();
+        }
+
+        // Return the number of rows inserted
+        return rowsInserted;
+    }
+
+    /**
+     * Apply a batch of insert, update and delete operations atomically. All of the operations run
+     * inside one transaction, so either every operation is committed or, if any of them fails
+     * (for example because its values don't pass validation), none of them are. Back-references
+     * to the results of earlier operations are resolved by {@link ContentProviderOperation}, and
+     * listeners are only notified once the whole batch has been committed. Operations on the
+     * pets of a shelter write to that shelter's own database, outside of the transaction.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        long start = System.nanoTime();
+        ContentProviderResult[] results = null;
+        try {
+            results = applyOperations(operations);
+            return results;
+        } finally {
+            mMetrics.record(PetProviderMetrics.APPLY_BATCH, -1, start,
+                    results == null ? 0 : results.length);
+        }
+    }
+
+    /**
+     * Apply the given operations in one transaction for {@link #applyBatch}.
+     */
+    private ContentProviderResult[] applyOperations(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // Get writeable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // Collect the changed URIs instead of notifying as each operation is applied
+        deferNotifications();
+
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        boolean committed = false;
+        try {
+            database.beginTransaction();
+            try {
+                for (int i = 0; i < operations.size(); i++) {
+                    results[i] = operations.get(i).apply(this, results, i);
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            committed = true;
+        } finally {
+            // Breeds added by a rolled back batch are gone again
+            mDbHelper.onTransactionEnded(committed);
+            sendDeferredNotifications();
+        }
+
+        return results;
+    }
+
+    /**
+     * Hold back the change notifications of the writes made on this thread, until
+     * {@link #sendDeferredNotifications} is called once their transaction has ended.
+     */
+    private void deferNotifications() {
+        mPendingNotifications.set(new LinkedHashSet<Uri>());
+    }
+
+    /**
+     * The transaction of the writes made on this thread has ended, so stop holding back their
+     * notifications and notify all listeners once for every changed URI, right away unless the
+     * {@link PetNotificationCoalescer} leaves commits to its window. If the transaction was
+     * rolled back, the notifications are harmless: listeners just reload the same data.
+     */
+    private void sendDeferredNotifications() {
+        Set<Uri> changedUris = mPendingNotifications.get();
+        mPendingNotifications.remove();
+        mQueryCache.invalidate();
+
+        for (Uri changedUri : changedUris) {
+            mNotifications.notifyChange(changedUri);
+        }
+        mNotifications.commit();
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed. Notifications for the
+     * same URI are collapsed by {@link PetNotificationCoalescer}, and if an {@link #applyBatch}
+     * is running on this thread, the notification is held back until the batch is committed.
+     */
+    private void notifyChange(Uri uri) {
+        // Any write makes the cached query results stale
+        mQueryCache.invalidate();
+
+        Set<Uri> pendingNotifications = mPendingNotifications.get();
+        if (pendingNotifications != null) {
+            pendingNotifications.add(uri);
+        } else {
+            mNotifications.notifyChange(uri);
+        }
+    }
+
+    /**
+     * Notify all listeners that the pets at the given shelter URI have changed, including
+     * those of the query over every shelter.
+     */
+    private void notifyShelterChange(Uri uri) {
+        notifyChange(uri);
+        notifyChange(PetShelterEntry.CONTENT_URI);
+    }
+
+    /**
+     * Check that the given content values describe a valid new pet, throwing an
+     * {@link IllegalArgumentException} if they don't.
+     */
+    static void validateNewPet(ContentValues values) {
+        PetValidation.checkNewPet(values.getAsString(PetEntry.COLUMN_PET_NAME),
+                values.getAsInteger(PetEntry.COLUMN_PET_GENDER),
+                values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT));
     }
 
     @Override
-    public int update(Uri uri, ContentValues contentValues, String selection,
-                      String[] selectionArgs) {
+    public int update(final Uri uri, final ContentValues contentValues, final String selection,
+                      final String[] selectionArgs) {
+        long start = System.nanoTime();
+        int rowsUpdated = 0;
+        try {
+            if (isDirectWrite() || isShelterUri(uri)) {
+                rowsUpdated = applyUpdate(uri, contentValues, selection, selectionArgs);
+            } else {
+                rowsUpdated = mWriteQueue.submit(new PetWriteQueue.Write<Integer>() {
+                    @Override
+                    public Integer run() {
+                        return applyUpdate(uri, contentValues, selection, selectionArgs);
+                    }
+                });
+            }
+            return rowsUpdated;
+        } finally {
+            mMetrics.record(PetProviderMetrics.UPDATE, sUriMatcher.match(uri) - PETS, start,
+                    rowsUpdated);
+        }
+    }
+
+    /**
+     * Update the rows at the given URI with the given values, on the current thread.
+     */
+    private int applyUpdate(Uri uri, ContentValues contentValues, String selection,
+                            String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                return updatePet(uri, contentValues, selectPetRows(selection), selectionArgs);
             case PET_ID:
                 // For the PET_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
-                selection = PetEntry._ID + "=?";
+                selection = SELECTION_BY_ID;
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
                 return updatePet(uri, contentValues, selection, selectionArgs);
+            case SHELTER_PETS:
+                return updateShelterPets(uri, contentValues, selectPetRows(selection),
+                        selectionArgs);
+            case SHELTER_PET_ID:
+                selection = SELECTION_BY_ID;
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                return updateShelterPets(uri, contentValues, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -190,62 +999,129 @@ public class PetProvider extends ContentProvider {
      * Return the number of rows that were successfully updated.
      */
     private int updatePet(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        // Check that the values given are valid
+        checkPetUpdate(values);
+
+        // If there are no values to update, then don't try to update the database
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // Otherwise, perform the update on the database and get the number of rows affected
+        int rowsUpdated;
+        if (sUriMatcher.match(uri) == PET_ID) {
+            rowsUpdated = mStore.updateById(ContentUris.parseId(uri), values);
+        } else {
+            rowsUpdated = mStore.update(values, selection, selectionArgs);
+        }
+
+        // If 1 or more rows were updated, then notify all listeners that the data at the
+        // given URI has changed
+        if (rowsUpdated != 0) {
+            notifyChange(uri);
+        }
+
+        // Return the number of rows updated
+        return rowsUpdated;
+    }
+
+    /**
+     * Update the pets of the shelter given by the URI with the given content values, for the
+     * rows specified in the selection and selection arguments. Return the number of rows that
+     * were successfully updated.
+     */
+    private int updateShelterPets(Uri uri, ContentValues values, String selection,
+                                  String[] selectionArgs) {
+        checkPetUpdate(values);
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // A shelter without a database has no pets to update
+        long shelterId = getShelterId(uri);
+        if (!mShelters.exists(shelterId)) {
+            return 0;
+        }
+        PetDbHelper shelter = mShelters.acquire(shelterId);
+        int rowsUpdated;
+        try {
+            rowsUpdated = shelter.getWritableDatabase().update(PetEntry.TABLE_NAME,
+                    shelter.toStoredValues(values), selection, selectionArgs);
+        } finally {
+            mShelters.release(shelterId);
+        }
+
+        if (rowsUpdated != 0) {
+            notifyShelterChange(uri);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Check that the values present in the given content values are valid for a pet, throwing
+     * an {@link IllegalArgumentException} if they aren't.
+     */
+    private static void checkPetUpdate(ContentValues values) {
         // If the {@link PetEntry#COLUMN_PET_NAME} key is present,
         // check that the name value is not null.
         if (values.containsKey(PetEntry.COLUMN_PET_NAME)) {
-            String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Pet requires a name");
-            }
+            PetValidation.checkName(values.getAsString(PetEntry.COLUMN_PET_NAME));
         }
 
         // If the {@link PetEntry#COLUMN_PET_GENDER} key is present,
         // check that the gender value is valid.
         if (values.containsKey(PetEntry.COLUMN_PET_GENDER)) {
-            Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
-            if (gender == null || !PetEntry.isValidGender(gender)) {
-                throw new IllegalArgumentException("Pet requires valid gender");
-            }
+            PetValidation.checkGender(values.getAsInteger(PetEntry.COLUMN_PET_GENDER));
         }
 
         // If the {@link PetEntry#COLUMN_PET_WEIGHT} key is present,
         // check that the weight value is valid.
         if (values.containsKey(PetEntry.COLUMN_PET_WEIGHT)) {
-            // Check that the weight is greater than or equal to 0 kg
-            Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
-            if (weight != null && weight < 0) {
-                throw new IllegalArgumentException("Pet requires valid weight");
-            }
+            PetValidation.checkWeight(values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT));
         }
 
         // No need to check the breed, any value is valid (including null).
+    }
 
-        // If there are no values to update, then don't try to update the database
-        if (values.size() == 0) {
-            return 0;
-        }
-
-        // Otherwise, get writeable database to update the data
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
-
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(PetEntry.TABLE_NAME, values, selection, selectionArgs);
-
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+    /**
+     * Returns a selection of the pets table for the pets matching the given selection, which
+     * is written against the columns of {@link PetEntry} and so may compare the breed as text,
+     * or null to select every pet.
+     */
+    private static String selectPetRows(String selection) {
+        if (selection == null) {
+            return null;
         }
-
-        // Return the number of rows updated
-        return rowsUpdated;
+        return PetEntry._ID + " IN (SELECT " + PetEntry._ID + " FROM "
+                + PetDbHelper.PETS_VIEW_NAME + " WHERE " + selection + ")";
     }
 
     @Override
-    public int delete(Uri uri, String selection, String[] selectionArgs) {
-        // Get writeable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+    public int delete(final Uri uri, final String selection, final String[] selectionArgs) {
+        long start = System.nanoTime();
+        int rowsDeleted = 0;
+        try {
+            if (isDirectWrite() || isShelterUri(uri)) {
+                rowsDeleted = applyDelete(uri, selection, selectionArgs);
+            } else {
+                rowsDeleted = mWriteQueue.submit(new PetWriteQueue.Write<Integer>() {
+                    @Override
+                    public Integer run() {
+                        return applyDelete(uri, selection, selectionArgs);
+                    }
+                });
+            }
+            return rowsDeleted;
+        } finally {
+            mMetrics.record(PetProviderMetrics.DELETE, sUriMatcher.match(uri) - PETS, start,
+                    rowsDeleted);
+        }
+    }
 
+    /**
+     * Delete the rows at the given URI, on the current thread.
+     */
+    private int applyDelete(Uri uri, String selection, String[] selectionArgs) {
         // Track the number of rows that were deleted
         int rowsDeleted;
 
@@ -253,14 +1129,17 @@ public class PetProvider extends ContentProvider {
         switch (match) {
             case PETS:
                 // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = mStore.delete(selectPetRows(selection), selectionArgs);
                 break;
             case PET_ID:
                 // Delete a single row given by the ID in the URI
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = mStore.deleteById(ContentUris.parseId(uri));
                 break;
+            case SHELTER_PETS:
+                return deleteShelterPets(uri, selectPetRows(selection), selectionArgs);
+            case SHELTER_PET_ID:
+                return deleteShelterPets(uri, SELECTION_BY_ID,
+                        new String[] { String.valueOf(ContentUris.parseId(uri)) });
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
@@ -268,13 +1147,221 @@ public class PetProvider extends ContentProvider {
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Delete the pets of the shelter given by the URI that match the selection and selection
+     * arguments. Return the number of rows deleted.
+     */
+    private int deleteShelterPets(Uri uri, String selection, String[] selectionArgs) {
+        // A shelter without a database has no pets to delete
+        long shelterId = getShelterId(uri);
+        if (!mShelters.exists(shelterId)) {
+            return 0;
+        }
+        PetDbHelper shelter = mShelters.acquire(shelterId);
+        int rowsDeleted;
+        try {
+            rowsDeleted = shelter.getWritableDatabase().delete(PetEntry.TABLE_NAME, selection,
+                    selectionArgs);
+        } finally {
+            mShelters.release(shelterId);
+        }
+
+        if (rowsDeleted != 0) {
+            notifyShelterChange(uri);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Handle the provider methods published in {@link PetContract}.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (PetContract.METHOD_GET_NOTIFICATION_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(PetContract.KEY_NOTIFICATIONS_DELIVERED,
+                    mNotifications.getDeliveredCount());
+            result.putLong(PetContract.KEY_NOTIFICATIONS_SUPPRESSED,
+                    mNotifications.getSuppressedCount());
+            return result;
+        } else if (PetContract.METHOD_SET_NOTIFICATION_WINDOW.equals(method)) {
+            try {
+                mNotifications.setWindowMillis(Long.parseLong(arg));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Window requires a valid length");
+            }
+            return null;
+        } else if (PetContract.METHOD_SET_NOTIFICATION_FLUSH_ON_COMMIT.equals(method)) {
+            if (!"true".equals(arg) && !"false".equals(arg)) {
+                throw new IllegalArgumentException("Flush on commit requires true or false");
+            }
+            mNotifications.setFlushOnCommit(Boolean.parseBoolean(arg));
+            return null;
+        } else if (PetContract.METHOD_CHECK_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            boolean consistent = mDbHelper.checkStats();
+            if (!consistent) {
+                mQueryCache.invalidate();
+            }
+            result.putBoolean(PetContract.KEY_STATS_CONSISTENT, consistent);
+            return result;
+        } else if (PetContract.METHOD_GET_QUERY_CACHE_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(PetContract.KEY_QUERY_CACHE_HITS, mQueryCache.getHitCount());
+            result.putLong(PetContract.KEY_QUERY_CACHE_MISSES, mQueryCache.getMissCount());
+            result.putLong(PetContract.KEY_QUERY_CACHE_BYTES, mQueryCache.getBytes());
+            return result;
+        } else if (PetContract.METHOD_GET_METRICS.equals(method)) {
+            return mMetrics.toBundle();
+        } else if (PetContract.METHOD_RESET_METRICS.equals(method)) {
+            mMetrics.reset();
+            return null;
+        } else if (PetContract.METHOD_COMPACT_CHANGES.equals(method)) {
+            long sequence;
+            try {
+                sequence = Long.parseLong(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Compaction requires a valid sequence number");
+            }
+            if (mDbHelper.compactChanges(sequence) != 0) {
+                mQueryCache.invalidate();
+            }
+            return null;
+        } else if (PetContract.METHOD_GET_WRITE_QUEUE_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(PetContract.KEY_WRITE_QUEUE_DEPTH, mWriteQueue.getQueueDepth());
+            result.putLong(PetContract.KEY_WRITE_BATCH_COUNT, mWriteQueue.getBatchCount());
+            result.putLong(PetContract.KEY_WRITE_COUNT, mWriteQueue.getWriteCount());
+            result.putInt(PetContract.KEY_MAX_WRITE_BATCH_SIZE, mWriteQueue.getMaxBatchSize());
+            return result;
+        } else if (PetContract.METHOD_GET_SLOW_QUERIES.equals(method)) {
+            return mSlowQueries.toBundle();
+        } else if (PetContract.METHOD_SET_SLOW_QUERY_THRESHOLD.equals(method)) {
+            try {
+                mSlowQueries.setThresholdMillis(Long.parseLong(arg));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Threshold requires a valid length");
+            }
+            return null;
+        } else if (PetContract.METHOD_CLEAR_SLOW_QUERIES.equals(method)) {
+            mSlowQueries.clear();
+            return null;
+        } else if (PetContract.METHOD_SET_DATABASE_PROFILE.equals(method)) {
+            mDbHelper.setProfile(PetDbProfile.forName(arg));
+            return null;
+        } else if (PetContract.METHOD_GET_DATABASE_PROFILE.equals(method)) {
+            Bundle result = new Bundle();
+            result.putString(PetContract.KEY_DATABASE_PROFILE, mDbHelper.getProfile().getName());
+            for (String pragma : new String[] { PetContract.KEY_MMAP_SIZE,
+                    PetContract.KEY_CACHE_SIZE, PetContract.KEY_SYNCHRONOUS,
+                    PetContract.KEY_TEMP_STORE, PetContract.KEY_PAGE_SIZE }) {
+                // The keys are named after the PRAGMAs they report
+                result.putLong(pragma, mDbHelper.readPragma(pragma));
+            }
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Print the latency and row counts of the provider entry points and the slow query log, and
+     * reset the counters if the arguments hold "--reset".
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+        mSlowQueries.dump(writer);
+        writer.println("Open shelter databases: " + mShelters.getOpenCount());
+        if (args != null) {
+            for (String arg : args) {
+                if ("--reset".equals(arg)) {
+                    mMetrics.reset();
+                    writer.println("Metrics reset");
+                }
+            }
+        }
+    }
+
+    /**
+     * Close the shelter databases that haven't been used for a while when memory runs low, and
+     * every shelter database not in use, along with SQLite's spare memory, once the system is
+     * about to kill processes. A closed shelter is opened again the next time it is used.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+                || level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            mShelters.closeIdle(0);
+            SQLiteDatabase.releaseMemory();
+        } else {
+            mShelters.closeIdle(SHELTER_IDLE_MILLIS);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        mShelters.closeIdle(0);
+        SQLiteDatabase.releaseMemory();
+    }
+
+    /**
+     * Stop the writer thread once the queued writes are committed, stop the threads of the
+     * cross-shelter queries, and close the databases. Only used by tests, since a provider
+     * otherwise lives as long as its process.
+     */
+    @Override
+    public void shutdown() {
+        mWriteQueue.shutdown();
+        mFanOutExecutor.shutdown();
+        mShelters.closeIdle(0);
+        mDbHelper.close();
+        super.shutdown();
+    }
+
+    /**
+     * Returns the stream types the pets can be read as that match the given filter: CSV, and
+     * the compact binary format. Returns null if none match.
+     */
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        if (sUriMatcher.match(uri) != PETS) {
+            return null;
+        }
+        List<String> types = new ArrayList<>();
+        for (String type : new String[] { PetEntry.CSV_TYPE, PetEntry.BINARY_TYPE }) {
+            if (ClipDescription.compareMimeTypes(type, mimeTypeFilter)) {
+                types.add(type);
+            }
+        }
+        return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+    }
+
+    /**
+     * Stream the whole pets table through a pipe, as CSV or in the compact binary format. The
+     * table is written by a background thread in chunks, so the caller can start reading right
+     * away and nothing holds the whole table in memory.
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        String[] types = getStreamTypes(uri, mimeTypeFilter);
+        if (types == null) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        ParcelFileDescriptor pipe = openPipeHelper(uri, types[0], opts, null,
+                new PetExporter(mDbHelper));
+        return new AssetFileDescriptor(pipe, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
@@ -283,6 +1370,18 @@ public class PetProvider extends ContentProvider {
                 return PetEntry.CONTENT_LIST_TYPE;
             case PET_ID:
                 return PetEntry.CONTENT_ITEM_TYPE;
+            case PET_SEARCH:
+                return PetEntry.CONTENT_LIST_TYPE;
+            case PET_STATS:
+                return PetStatsEntry.CONTENT_ITEM_TYPE;
+            case PET_CHANGES:
+                return PetChangeEntry.CONTENT_LIST_TYPE;
+            case SHELTER_PETS:
+                return PetEntry.CONTENT_LIST_TYPE;
+            case SHELTER_PET_ID:
+                return PetEntry.CONTENT_ITEM_TYPE;
+            case ALL_SHELTER_PETS:
+                return PetEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
@@ -0,0 +1,170 @@
+package com.example.android.pets.data;
+
+import android.os.Bundle;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms and row counters for the entry points of {@link PetProvider}, kept per
+ * operation and per URI matcher code.
+ *
+ * Recording a call only updates preallocated atomic counters, so it neither allocates nor
+ * takes a lock. Latencies go into power-of-two buckets of microseconds: bucket 0 counts calls
+ * under 1 us, and bucket i counts calls from 2^(i-1) up to 2^i us.
+ */
+final class PetProviderMetrics {
+
+    /** The operations measured */
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int UPDATE = 2;
+    static final int DELETE = 3;
+    static final int BULK_INSERT = 4;
+    static final int APPLY_BATCH = 5;
+
+    /** Names of the operations, as they are reported */
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "update", "delete", "bulkInsert", "applyBatch" };
+
+    /** Number of latency buckets; the last one also counts everything slower */
+    static final int BUCKET_COUNT = 32;
+
+    /** Offsets of the counters within each slot, followed by the latency buckets */
+    private static final int CALLS = 0;
+    private static final int ROWS = 1;
+    private static final int TOTAL_NANOS = 2;
+    private static final int MAX_NANOS = 3;
+    private static final int BUCKETS = 4;
+    private static final int SLOT_SIZE = BUCKETS + BUCKET_COUNT;
+
+    /** Names of the match slots; the last one is for calls without a known match code */
+    private final String[] mMatchNames;
+
+    /** The counters, one slot per operation and match */
+    private final AtomicLongArray mCounters;
+
+    /**
+     * @param matchNames names of the URI matcher codes, by match index. One more slot is kept
+     *                   for calls whose URI didn't match, or that have no single URI.
+     */
+    PetProviderMetrics(String[] matchNames) {
+        mMatchNames = matchNames;
+        mCounters = new AtomicLongArray(
+                OPERATION_NAMES.length * (matchNames.length + 1) * SLOT_SIZE);
+    }
+
+    /**
+     * Record a call of the given operation, for the given match index (or -1 for none), that
+     * started at the given {@link System#nanoTime} and affected the given number of rows.
+     */
+    void record(int operation, int matchIndex, long startNanos, long rows) {
+        long nanos = System.nanoTime() - startNanos;
+        if (matchIndex < 0 || matchIndex >= mMatchNames.length) {
+            matchIndex = mMatchNames.length;
+        }
+        int slot = (operation * (mMatchNames.length + 1) + matchIndex) * SLOT_SIZE;
+
+        mCounters.incrementAndGet(slot + CALLS);
+        mCounters.addAndGet(slot + ROWS, rows);
+        mCounters.addAndGet(slot + TOTAL_NANOS, nanos);
+        long max;
+        while (nanos > (max = mCounters.get(slot + MAX_NANOS))) {
+            if (mCounters.compareAndSet(slot + MAX_NANOS, max, nanos)) {
+                break;
+            }
+        }
+        mCounters.incrementAndGet(slot + BUCKETS + bucket(nanos / 1000));
+    }
+
+    /**
+     * Returns the latency bucket for the given number of microseconds.
+     */
+    private static int bucket(long micros) {
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * Clear every counter.
+     */
+    void reset() {
+        for (int i = 0; i < mCounters.length(); i++) {
+            mCounters.set(i, 0);
+        }
+    }
+
+    /**
+     * Returns the counters of every operation and match that has been called, keyed by
+     * "operation/match" (see {@link PetContract#METHOD_GET_METRICS} for the layout).
+     */
+    Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int match = 0; match <= mMatchNames.length; match++) {
+                int slot = (operation * (mMatchNames.length + 1) + match) * SLOT_SIZE;
+                if (mCounters.get(slot + CALLS) == 0) {
+                    continue;
+                }
+                long[] values = new long[SLOT_SIZE];
+                for (int i = 0; i < SLOT_SIZE; i++) {
+                    values[i] = mCounters.get(slot + i);
+                }
+                bundle.putLongArray(OPERATION_NAMES[operation] + "/" + matchName(match), values);
+            }
+        }
+        return bundle;
+    }
+
+    /**
+     * Print a table of every operation and match that has been called, with its call count,
+     * row count, and mean, median, 99th percentile and maximum latency in microseconds. The
+     * percentiles are the upper bounds of the buckets they fall in.
+     */
+    void dump(PrintWriter writer) {
+        writer.println("operation/match  calls  rows  mean_us  p50_us  p99_us  max_us");
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int match = 0; match <= mMatchNames.length; match++) {
+                int slot = (operation * (mMatchNames.length + 1) + match) * SLOT_SIZE;
+                long calls = mCounters.get(slot + CALLS);
+                if (calls == 0) {
+                    continue;
+                }
+                writer.print(OPERATION_NAMES[operation]);
+                writer.print('/');
+                writer.print(matchName(match));
+                writer.print("  ");
+                writer.print(calls);
+                writer.print("  ");
+                writer.print(mCounters.get(slot + ROWS));
+                writer.print("  ");
+                writer.print(mCounters.get(slot + TOTAL_NANOS) / calls / 1000);
+                writer.print("  ");
+                writer.print(percentile(slot, calls, 50));
+                writer.print("  ");
+                writer.print(percentile(slot, calls, 99));
+                writer.print("  ");
+                writer.println(mCounters.get(slot + MAX_NANOS) / 1000);
+            }
+        }
+    }
+
+    /**
+     * Returns the upper bound, in microseconds, of the bucket holding the given percentile of
+     * the calls in the given slot.
+     */
+    private long percentile(int slot, long calls, int percent) {
+        long rank = (calls * percent + 99) / 100;
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += mCounters.get(slot + BUCKETS + bucket);
+            if (seen >= rank) {
+                return 1L << bucket;
+            }
+        }
+        return 1L << (BUCKET_COUNT - 1);
+    }
+
+    private String matchName(int match) {
+        return match < mMatchNames.length ? mMatchNames[match] : "other";
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache of the results of {@link PetProvider} queries. A result is stored as a
+ * snapshot of its rows and served as a new {@link MatrixCursor} for each hit, so callers can
+ * never change a cached result.
+ *
+ * Every write to the pets table bumps the generation of the cache, and a result is only served
+ * while the generation it was read at is still current. The least recently used results are
+ * evicted once the estimated size of all results goes over the byte budget.
+ */
+final class PetQueryCache {
+
+    /** Results with more rows than this aren't cached, they'd push everything else out */
+    private static final int MAX_CACHED_ROWS = 1000;
+
+    /** Estimated size in bytes of a cached value other than a string or blob */
+    private static final int VALUE_SIZE = 16;
+
+    /** Most bytes the cached results may use, estimated */
+    private final long mByteBudget;
+
+    /** Cached results, from the least to the most recently used */
+    private final LinkedHashMap<Key, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Generation of the pets table, bumped on every write */
+    private long mGeneration;
+
+    /** Estimated size in bytes of all cached results */
+    private long mBytes;
+
+    /** Number of lookups served from the cache, and number that went to the database */
+    private long mHitCount;
+    private long mMissCount;
+
+    PetQueryCache(long byteBudget) {
+        mByteBudget = byteBudget;
+    }
+
+    /**
+     * Returns the key for a query with the given parameters. The URI carries the match code
+     * together with any ID, search text or paging parameters.
+     */
+    static Key key(int match, String uri, String[] projection, String selection,
+                   String[] selectionArgs, String sortOrder) {
+        return new Key(new Object[] { match, uri, projection == null ? null
+                : Arrays.asList(projection), selection, selectionArgs == null ? null
+                : Arrays.asList(selectionArgs), sortOrder });
+    }
+
+    /**
+     * Returns the current generation. Read it before querying the database, and pass it to
+     * {@link #put} with the result.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Invalidate every cached result, because the pets table has changed.
+     */
+    synchronized void invalidate() {
+        mGeneration++;
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * Returns a cursor over the cached result for the given key, or null if there is no
+     * current result for it.
+     */
+    Cursor get(Key key) {
+        Entry entry;
+        synchronized (this) {
+            entry = mEntries.get(key);
+            if (entry == null || entry.generation != mGeneration) {
+                mMissCount++;
+                return null;
+            }
+            mHitCount++;
+        }
+        MatrixCursor cursor = new MatrixCursor(entry.columns, entry.rows.length);
+        for (Object[] row : entry.rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Cache the result of a query read at the given generation, if it is small enough. The
+     * given cursor is consumed and closed. Returns a cursor over the same result, which is the
+     * cached snapshot or, for a result that is too large to cache, the original cursor.
+     */
+    Cursor put(Key key, long generation, Cursor cursor) {
+        int count = cursor.getCount();
+        if (count > MAX_CACHED_ROWS) {
+            return cursor;
+        }
+
+        // Copy the rows out of the cursor, keeping the type of every value
+        String[] columns = cursor.getColumnNames();
+        Object[][] rows = new Object[count][];
+        long bytes = 0;
+        try {
+            for (int i = 0; cursor.moveToNext(); i++) {
+                Object[] row = new Object[columns.length];
+                for (int column = 0; column < columns.length; column++) {
+                    switch (cursor.getType(column)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[column] = cursor.getLong(column);
+                            bytes += VALUE_SIZE;
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[column] = cursor.getDouble(column);
+                            bytes += VALUE_SIZE;
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            String string = cursor.getString(column);
+                            row[column] = string;
+                            bytes += VALUE_SIZE + 2L * string.length();
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            byte[] blob = cursor.getBlob(column);
+                            row[column] = blob;
+                            bytes += VALUE_SIZE + blob.length;
+                            break;
+                        default:
+                            bytes += VALUE_SIZE;
+                            break;
+                    }
+                }
+                rows[i] = row;
+            }
+        } finally {
+            cursor.close();
+        }
+        Entry entry = new Entry(generation, columns, rows, bytes);
+
+        synchronized (this) {
+            // Only keep results that are still current, and that fit in the budget
+            if (generation == mGeneration && bytes <= mByteBudget) {
+                Entry previous = mEntries.put(key, entry);
+                if (previous != null) {
+                    mBytes -= previous.bytes;
+                }
+                mBytes += bytes;
+
+                // Evict the least recently used results until the rest fit in the budget
+                Iterator<Map.Entry<Key, Entry>> iterator = mEntries.entrySet().iterator();
+                while (mBytes > mByteBudget && iterator.hasNext()) {
+                    mBytes -= iterator.next().getValue().bytes;
+                    iterator.remove();
+                }
+            }
+        }
+
+        MatrixCursor snapshot = new MatrixCursor(columns, rows.length);
+        for (Object[] row : rows) {
+            snapshot.addRow(row);
+        }
+        return snapshot;
+    }
+
+    /** Returns the number of lookups served from the cache. */
+    synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /** Returns the number of lookups that had to go to the database. */
+    synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /** Returns the estimated size in bytes of all cached results. */
+    synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Key of a cached result, comparing all of the query parameters by value.
+     */
+    static final class Key {
+        private final Object[] mParts;
+
+        private Key(Object[] parts) {
+            mParts = parts;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(mParts, ((Key) other).mParts);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(mParts);
+        }
+    }
+
+    /**
+     * A cached result: the rows of the query, and the generation they were read at.
+     */
+    private static final class Entry {
+        final long generation;
+        final String[] columns;
+        final Object[][] rows;
+        final long bytes;
+
+        Entry(long generation, String[] columns, Object[][] rows, long bytes) {
+            this.generation = generation;
+            this.columns = columns;
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+    }
+}
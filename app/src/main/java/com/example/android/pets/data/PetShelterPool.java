@@ -0,0 +1,185 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The databases of the individual shelters, one file per shelter ("shelter_3.db" for shelter
+ * 3), each with the same schema as shelter.db. Every shelter has its own file and its own
+ * write lock, so writes to different shelters don't wait for each other.
+ *
+ * There is one {@link PetDbHelper} per shelter for the life of the pool, so a shelter is never
+ * opened twice. A shelter is in use from {@link #acquire} until the matching {@link #release},
+ * which for a query is when its cursor is closed, because a cursor can't read the rest of its
+ * rows once its database is closed. Of the shelters not in use, at most
+ * {@link #MAX_OPEN_SHELTERS} are kept open, the least recently used one being closed when
+ * another one is opened, and {@link #closeIdle} closes those that haven't been used for a
+ * while when memory runs low. A closed shelter is opened again the next time it is used.
+ */
+final class PetShelterPool {
+
+    /** Most shelter databases kept open at the same time */
+    static final int MAX_OPEN_SHELTERS = 8;
+
+    /** Names of the shelter database files */
+    private static final Pattern DATABASE_NAME = Pattern.compile("shelter_(\\d+)\\.db");
+
+    private final Context mContext;
+
+    /** Database helper of every shelter used so far, by shelter ID */
+    private final Map<Long, PetDbHelper> mHelpers = new HashMap<>();
+
+    /** Time each open shelter was last used, by shelter ID, least recently used first */
+    private final LinkedHashMap<Long, Long> mLastUsed = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Number of uses not released yet, by shelter ID, for the shelters in use */
+    private final Map<Long, Integer> mUseCounts = new HashMap<>();
+
+    PetShelterPool(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Returns the database helper of the given shelter, creating its database when it is
+     * first opened, and marks the shelter in use until {@link #release} is called for it.
+     * Closes the least recently used shelter if too many are open.
+     */
+    synchronized PetDbHelper acquire(long shelterId) {
+        if (shelterId < 0) {
+            throw new IllegalArgumentException("Invalid shelter " + shelterId);
+        }
+        PetDbHelper helper = mHelpers.get(shelterId);
+        if (helper == null) {
+            helper = new PetDbHelper(mContext, getDatabaseName(shelterId));
+            mHelpers.put(shelterId, helper);
+        }
+
+        Integer useCount = mUseCounts.get(shelterId);
+        mUseCounts.put(shelterId, useCount == null ? 1 : useCount + 1);
+        mLastUsed.put(shelterId, SystemClock.uptimeMillis());
+
+        int excess = mLastUsed.size() - MAX_OPEN_SHELTERS;
+        Iterator<Long> shelters = mLastUsed.keySet().iterator();
+        while (excess > 0 && shelters.hasNext()) {
+            Long eldest = shelters.next();
+            if (!mUseCounts.containsKey(eldest)) {
+                mHelpers.get(eldest).close();
+                shelters.remove();
+                excess--;
+            }
+        }
+        return helper;
+    }
+
+    /**
+     * Returns whether the given shelter has a database. Unlike {@link #acquire}, this never
+     * creates one, so that reading a shelter that doesn't exist leaves no empty file behind.
+     */
+    boolean exists(long shelterId) {
+        return shelterId >= 0 && mContext.getDatabasePath(getDatabaseName(shelterId)).exists();
+    }
+
+    /**
+     * Returns the name of the database file of the given shelter.
+     */
+    private static String getDatabaseName(long shelterId) {
+        return "shelter_" + shelterId + ".db";
+    }
+
+    /**
+     * The given shelter, acquired earlier, isn't used by that caller anymore.
+     */
+    synchronized void release(long shelterId) {
+        int useCount = mUseCounts.get(shelterId);
+        if (useCount == 1) {
+            mUseCounts.remove(shelterId);
+        } else {
+            mUseCounts.put(shelterId, useCount - 1);
+        }
+        mLastUsed.put(shelterId, SystemClock.uptimeMillis());
+    }
+
+    /**
+     * Returns a cursor that reads the given cursor, queried from the given acquired shelter,
+     * and releases the shelter when it is closed.
+     */
+    Cursor releaseOnClose(final long shelterId, Cursor cursor) {
+        return new CursorWrapper(cursor) {
+            private boolean mReleased;
+
+            @Override
+            public void close() {
+                super.close();
+                synchronized (this) {
+                    if (mReleased) {
+                        return;
+                    }
+                    mReleased = true;
+                }
+                release(shelterId);
+            }
+        };
+    }
+
+    /**
+     * Returns the IDs of every shelter that has a database, in increasing order.
+     */
+    List<Long> getShelterIds() {
+        List<Long> shelterIds = new ArrayList<>();
+        for (String name : mContext.databaseList()) {
+            Matcher matcher = DATABASE_NAME.matcher(name);
+            if (matcher.matches()) {
+                try {
+                    shelterIds.add(Long.parseLong(matcher.group(1)));
+                } catch (NumberFormatException e) {
+                    // Not a shelter of ours, the ID doesn't fit a long
+                }
+            }
+        }
+        Collections.sort(shelterIds);
+        return shelterIds;
+    }
+
+    /**
+     * Close the shelter databases that aren't in use and haven't been used for at least the
+     * given time. Return the number of shelters closed.
+     */
+    synchronized int closeIdle(long idleMillis) {
+        long now = SystemClock.uptimeMillis();
+        int closed = 0;
+        Iterator<Map.Entry<Long, Long>> entries = mLastUsed.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Long, Long> entry = entries.next();
+            if (now - entry.getValue() < idleMillis) {
+                // The rest were used even more recently
+                break;
+            }
+            if (mUseCounts.containsKey(entry.getKey())) {
+                continue;
+            }
+            mHelpers.get(entry.getKey()).close();
+            entries.remove();
+            closed++;
+        }
+        return closed;
+    }
+
+    /**
+     * Returns the number of shelter databases open.
+     */
+    synchronized int getOpenCount() {
+        return mLastUsed.size();
+    }
+}
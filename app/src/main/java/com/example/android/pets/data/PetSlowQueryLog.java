@@ -0,0 +1,211 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.regex.Pattern;
+
+/**
+ * Log of the queries of {@link PetProvider} that took longer than a threshold, so that a
+ * selection or sort order that the indexes can't serve shows up with its query plan.
+ *
+ * For every slow query the log keeps the SQL with its literals replaced by "?", the number of
+ * bound arguments, how long it took and the output of EXPLAIN QUERY PLAN. Only the most recent
+ * {@link #CAPACITY} queries are kept, overwriting the oldest ones.
+ */
+final class PetSlowQueryLog {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetSlowQueryLog.class.getSimpleName();
+
+    /** Number of slow queries kept */
+    static final int CAPACITY = 32;
+
+    /** String literals, with quotes inside them doubled */
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+
+    /** Numeric literals that aren't part of a name */
+    private static final Pattern NUMERIC_LITERAL =
+            Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?:[eE][-+]?\\d+)?(?![\\w.])");
+
+    /** Runs of white space */
+    private static final Pattern WHITE_SPACE = Pattern.compile("\\s+");
+
+    /** The slow queries, as a ring that {@link #mNext} points into */
+    private final String[] mShapes = new String[CAPACITY];
+    private final String[] mPlans = new String[CAPACITY];
+    private final int[] mArgumentCounts = new int[CAPACITY];
+    private final long[] mDurationsNanos = new long[CAPACITY];
+    private final long[] mTimesMillis = new long[CAPACITY];
+
+    /** Slot the next slow query is written to */
+    private int mNext;
+
+    /** Number of slots in use */
+    private int mCount;
+
+    /** Queries taking at least this long are logged */
+    private volatile long mThresholdNanos;
+
+    /**
+     * @param thresholdMillis queries taking at least this many milliseconds are logged
+     */
+    PetSlowQueryLog(long thresholdMillis) {
+        setThresholdMillis(thresholdMillis);
+    }
+
+    /**
+     * Set the time, in milliseconds, that a query has to take to be logged. 0 logs every
+     * query.
+     */
+    void setThresholdMillis(long thresholdMillis) {
+        if (thresholdMillis < 0) {
+            throw new IllegalArgumentException("Threshold can't be negative");
+        }
+        mThresholdNanos = thresholdMillis * 1000000;
+    }
+
+    /**
+     * Returns whether a query that took the given time is slow enough to be logged.
+     */
+    boolean isSlow(long durationNanos) {
+        return durationNanos >= mThresholdNanos;
+    }
+
+    /**
+     * Log the given query, which was run on the given database with the given arguments and
+     * took the given time. The plan is asked from the database unless a query of the same
+     * shape is already in the log.
+     */
+    void record(SQLiteDatabase database, String sql, String[] selectionArgs, long durationNanos) {
+        String shape = normalize(sql);
+        Log.w(LOG_TAG, "Slow query (" + durationNanos / 1000000 + " ms): " + shape);
+
+        String plan = findPlan(shape);
+        if (plan == null) {
+            plan = explain(database, sql, selectionArgs);
+        }
+
+        synchronized (this) {
+            mShapes[mNext] = shape;
+            mPlans[mNext] = plan;
+            mArgumentCounts[mNext] = selectionArgs == null ? 0 : selectionArgs.length;
+            mDurationsNanos[mNext] = durationNanos;
+            mTimesMillis[mNext] = System.currentTimeMillis();
+            mNext = (mNext + 1) % CAPACITY;
+            mCount = Math.min(CAPACITY, mCount + 1);
+        }
+    }
+
+    /**
+     * Returns the plan of a logged query with the given shape, or null if there is none.
+     */
+    private synchronized String findPlan(String shape) {
+        for (int i = 0; i < mCount; i++) {
+            if (shape.equals(mShapes[i])) {
+                return mPlans[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the output of EXPLAIN QUERY PLAN for the given query, one step per line.
+     */
+    private static String explain(SQLiteDatabase database, String sql, String[] selectionArgs) {
+        try {
+            Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+            try {
+                int detail = cursor.getColumnIndexOrThrow("detail");
+                StringBuilder plan = new StringBuilder();
+                while (cursor.moveToNext()) {
+                    if (plan.length() != 0) {
+                        plan.append('\n');
+                    }
+                    plan.append(cursor.getString(detail));
+                }
+                return plan.toString();
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLException | IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Failed to explain " + sql, e);
+            return "(no plan: " + e.getMessage() + ")";
+        }
+    }
+
+    /**
+     * Returns the given SQL with its string and numeric literals replaced by "?" and its white
+     * space collapsed, so that queries differing only in their values have the same shape.
+     */
+    static String normalize(String sql) {
+        String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+        shape = NUMERIC_LITERAL.matcher(shape).replaceAll("?");
+        return WHITE_SPACE.matcher(shape).replaceAll(" ").trim();
+    }
+
+    /**
+     * Forget every logged query.
+     */
+    synchronized void clear() {
+        for (int i = 0; i < CAPACITY; i++) {
+            mShapes[i] = null;
+            mPlans[i] = null;
+        }
+        mNext = 0;
+        mCount = 0;
+    }
+
+    /**
+     * Returns the logged queries, oldest first (see {@link PetContract#METHOD_GET_SLOW_QUERIES}
+     * for the layout).
+     */
+    synchronized Bundle toBundle() {
+        String[] shapes = new String[mCount];
+        String[] plans = new String[mCount];
+        int[] argumentCounts = new int[mCount];
+        long[] durations = new long[mCount];
+        long[] times = new long[mCount];
+        for (int i = 0; i < mCount; i++) {
+            int slot = (mNext - mCount + i + CAPACITY) % CAPACITY;
+            shapes[i] = mShapes[slot];
+            plans[i] = mPlans[slot];
+            argumentCounts[i] = mArgumentCounts[slot];
+            durations[i] = mDurationsNanos[slot];
+            times[i] = mTimesMillis[slot];
+        }
+
+        Bundle bundle = new Bundle();
+        bundle.putStringArray(PetContract.KEY_SLOW_QUERY_SQL, shapes);
+        bundle.putStringArray(PetContract.KEY_SLOW_QUERY_PLANS, plans);
+        bundle.putIntArray(PetContract.KEY_SLOW_QUERY_ARGUMENT_COUNTS, argumentCounts);
+        bundle.putLongArray(PetContract.KEY_SLOW_QUERY_DURATIONS, durations);
+        bundle.putLongArray(PetContract.KEY_SLOW_QUERY_TIMES, times);
+        return bundle;
+    }
+
+    /**
+     * Print the logged queries, oldest first, each with its duration in microseconds, its
+     * number of arguments and its plan.
+     */
+    synchronized void dump(PrintWriter writer) {
+        writer.println("Slow queries (at least " + mThresholdNanos / 1000000 + " ms): " + mCount);
+        for (int i = 0; i < mCount; i++) {
+            int slot = (mNext - mCount + i + CAPACITY) % CAPACITY;
+            writer.print("  ");
+            writer.print(mDurationsNanos[slot] / 1000);
+            writer.print(" us, ");
+            writer.print(mArgumentCounts[slot]);
+            writer.print(" args: ");
+            writer.println(mShapes[slot]);
+            for (String step : mPlans[slot].split("\n")) {
+                writer.print("    ");
+                writer.println(step);
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Precompiled statements for the single-row writes and reads by ID that {@link PetProvider}
+ * makes most often, through {@link SqlitePetStore}. Each statement is compiled once for the
+ * database it belongs to, and its parameters are bound straight from the
+ * {@link ContentValues}, instead of building and parsing a new SQL string for every row. The
+ * read by ID is a query, which a {@link SQLiteStatement} can't return, so it runs the same SQL
+ * string every time, which each connection keeps compiled in its statement cache.
+ *
+ * The statements only cover the fixed shapes that the editor uses: a new pet with any of the
+ * pet columns, and an update that sets all of them. Anything else should go through the
+ * generic {@link SQLiteDatabase} methods. The values are those written to the pets table, with
+ * the breed as its ID (see {@link PetDbHelper#toStoredValues}).
+ *
+ * A statement holds the values bound to it until it runs, so the statements aren't thread
+ * safe: each thread uses statements of its own (see {@link SqlitePetStore}). They run on the
+ * connection of the calling thread, so no lock is held while a thread waits for one, such as
+ * the primary connection that another thread holds for a transaction.
+ */
+final class PetStatements {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetStatements.class.getSimpleName();
+
+    /** Statement to insert a new pet, with all of the pet columns */
+    private static final String SQL_INSERT = "INSERT INTO " + PetEntry.TABLE_NAME + " ("
+            + PetEntry.COLUMN_PET_NAME + ", "
+            + PetDbHelper.COLUMN_BREED_ID + ", "
+            + PetEntry.COLUMN_PET_GENDER + ", "
+            + PetEntry.COLUMN_PET_WEIGHT + ") VALUES (?, ?, ?, ?)";
+
+    /** Statement to update all of the pet columns of the pet with the given ID */
+    private static final String SQL_UPDATE_BY_ID = "UPDATE " + PetEntry.TABLE_NAME + " SET "
+            + PetEntry.COLUMN_PET_NAME + " = ?, "
+            + PetDbHelper.COLUMN_BREED_ID + " = ?, "
+            + PetEntry.COLUMN_PET_GENDER + " = ?, "
+            + PetEntry.COLUMN_PET_WEIGHT + " = ? WHERE " + PetEntry._ID + " = ?";
+
+    /** Statement to delete the pet with the given ID */
+    private static final String SQL_DELETE_BY_ID = "DELETE FROM " + PetEntry.TABLE_NAME
+            + " WHERE " + PetEntry._ID + " = ?";
+
+    /** Query of the pet with the given ID, with its breed as text */
+    private static final String SQL_SELECT_BY_ID = "SELECT "
+            + PetEntry._ID + ", "
+            + PetEntry.COLUMN_PET_NAME + ", "
+            + PetEntry.COLUMN_PET_BREED + ", "
+            + PetEntry.COLUMN_PET_GENDER + ", "
+            + PetEntry.COLUMN_PET_WEIGHT + " FROM " + PetDbHelper.PETS_VIEW_NAME + " WHERE "
+            + PetEntry._ID + " = ?";
+
+    /** Database the statements are compiled for */
+    private final SQLiteDatabase mDatabase;
+
+    /** Compiled statements, created the first time they are needed */
+    private SQLiteStatement mInsert;
+    private SQLiteStatement mUpdateById;
+    private SQLiteStatement mDeleteById;
+
+    PetStatements(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /** Returns the database the statements are compiled for. */
+    SQLiteDatabase getDatabase() {
+        return mDatabase;
+    }
+
+    /**
+     * Returns whether the given values of a new pet can be inserted by {@link #insert}: they
+     * may only hold pet columns, and the weight, if present, must not be null.
+     */
+    static boolean canInsert(ContentValues values) {
+        for (String key : values.keySet()) {
+            if (!isPetColumn(key)) {
+                return false;
+            }
+        }
+        return !values.containsKey(PetEntry.COLUMN_PET_WEIGHT)
+                || values.get(PetEntry.COLUMN_PET_WEIGHT) != null;
+    }
+
+    /**
+     * Returns whether the given values can be applied by {@link #updateById}: they must hold
+     * exactly the pet columns, with a weight that is not null.
+     */
+    static boolean canUpdate(ContentValues values) {
+        return values.size() == 4
+                && values.containsKey(PetEntry.COLUMN_PET_NAME)
+                && values.containsKey(PetDbHelper.COLUMN_BREED_ID)
+                && values.containsKey(PetEntry.COLUMN_PET_GENDER)
+                && values.get(PetEntry.COLUMN_PET_WEIGHT) != null;
+    }
+
+    /**
+     * Insert a new pet with the given values, which must pass {@link #canInsert}. Return the ID
+     * of the new row, or -1 if it couldn't be inserted.
+     */
+    long insert(ContentValues values) {
+        if (mInsert == null) {
+            mInsert = mDatabase.compileStatement(SQL_INSERT);
+        }
+        bindPet(mInsert, values);
+        try {
+            return mInsert.executeInsert();
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error inserting " + values, e);
+            return -1;
+        } finally {
+            mInsert.clearBindings();
+        }
+    }
+
+    /**
+     * Update the pet with the given ID to the given values, which must pass {@link #canUpdate}.
+     * Return the number of rows updated.
+     */
+    int updateById(long id, ContentValues values) {
+        if (mUpdateById == null) {
+            mUpdateById = mDatabase.compileStatement(SQL_UPDATE_BY_ID);
+        }
+        bindPet(mUpdateById, values);
+        mUpdateById.bindLong(5, id);
+        try {
+            return mUpdateById.executeUpdateDelete();
+        } finally {
+            mUpdateById.clearBindings();
+        }
+    }
+
+    /**
+     * Delete the pet with the given ID. Return the number of rows deleted.
+     */
+    int deleteById(long id) {
+        if (mDeleteById == null) {
+            mDeleteById = mDatabase.compileStatement(SQL_DELETE_BY_ID);
+        }
+        mDeleteById.bindLong(1, id);
+        try {
+            return mDeleteById.executeUpdateDelete();
+        } finally {
+            mDeleteById.clearBindings();
+        }
+    }
+
+    /**
+     * Returns the pet with the given ID, or null if there is none.
+     */
+    Pet selectById(long id) {
+        Cursor cursor = mDatabase.rawQuery(SQL_SELECT_BY_ID,
+                new String[] { String.valueOf(id) });
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new Pet(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                    cursor.getInt(3), cursor.getInt(4));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Release the compiled statements.
+     */
+    void close() {
+        if (mInsert != null) {
+            mInsert.close();
+            mInsert = null;
+        }
+        if (mUpdateById != null) {
+            mUpdateById.close();
+            mUpdateById = null;
+        }
+        if (mDeleteById != null) {
+            mDeleteById.close();
+            mDeleteById = null;
+        }
+    }
+
+    /**
+     * Bind the pet columns of the given values to the first four parameters of the statement.
+     * A missing weight is bound as 0, the default of the column.
+     */
+    private static void bindPet(SQLiteStatement statement, ContentValues values) {
+        String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
+        if (name == null) {
+            statement.bindNull(1);
+        } else {
+            statement.bindString(1, name);
+        }
+
+        Long breedId = values.getAsLong(PetDbHelper.COLUMN_BREED_ID);
+        if (breedId == null) {
+            statement.bindNull(2);
+        } else {
+            statement.bindLong(2, breedId);
+        }
+
+        Long gender = values.getAsLong(PetEntry.COLUMN_PET_GENDER);
+        if (gender == null) {
+            statement.bindNull(3);
+        } else {
+            statement.bindLong(3, gender);
+        }
+
+        Long weight = values.getAsLong(PetEntry.COLUMN_PET_WEIGHT);
+        statement.bindLong(4, weight == null ? 0 : weight);
+    }
+
+    /**
+     * Returns whether the given column is one of the pet columns the statements write.
+     */
+    private static boolean isPetColumn(String column) {
+        return PetEntry.COLUMN_PET_NAME.equals(column)
+                || PetDbHelper.COLUMN_BREED_ID.equals(column)
+                || PetEntry.COLUMN_PET_GENDER.equals(column)
+                || PetEntry.COLUMN_PET_WEIGHT.equals(column);
+    }
+}
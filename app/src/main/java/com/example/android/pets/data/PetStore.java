@@ -0,0 +1,53 @@
+package com.example.android.pets.data;
+
+/**
+ * Storage engine for pets, independent of the Android framework, so engines can be swapped
+ * and benchmarked on a plain JVM. Every engine checks new and changed pets with
+ * {@link PetValidation}, and hands out pets in ID order.
+ */
+public interface PetStore {
+
+    /** Gender filter of {@link #scan} that matches every gender */
+    int ANY_GENDER = -1;
+
+    /**
+     * Receives the pets found by {@link #scan}, one at a time, without allocating an object
+     * per pet.
+     */
+    interface Visitor {
+        void visit(long id, String name, String breed, int gender, int weight);
+    }
+
+    /**
+     * Store a new pet and return its ID.
+     */
+    long insert(String name, String breed, int gender, int weight);
+
+    /**
+     * Change every value of the pet with the given ID. Return whether the pet exists.
+     */
+    boolean update(long id, String name, String breed, int gender, int weight);
+
+    /**
+     * Remove the pet with the given ID. Return whether the pet existed.
+     */
+    boolean delete(long id);
+
+    /**
+     * Returns the pet with the given ID, or null if there is none.
+     */
+    Pet get(long id);
+
+    /**
+     * Visit the pets with IDs greater than the given ID, in ID order, that have the given
+     * gender (or any gender, for {@link #ANY_GENDER}) and a weight between the given minimum
+     * and maximum, inclusive. Stop after the given number of pets. Return the number of pets
+     * visited.
+     */
+    int scan(int gender, int minWeight, int maxWeight, long afterId, int limit, Visitor visitor);
+
+    /**
+     * Returns the number of pets stored.
+     */
+    int size();
+}
@@ -0,0 +1,58 @@
+package com.example.android.pets.data;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * The rules a pet has to follow to be stored, shared by {@link PetProvider} and the
+ * {@link PetStore} engines. Each check throws an {@link IllegalArgumentException} when its
+ * rule is broken.
+ *
+ * This class only depends on plain Java, so the rules can be checked (and benchmarked) on a
+ * JVM without the Android framework. For the same reason it compares genders against the
+ * {@link PetEntry} constants itself instead of calling {@link PetEntry#isValidGender}, which
+ * would load the content URIs of the contract.
+ */
+public final class PetValidation {
+
+    // Only static methods, so prevent instantiation
+    private PetValidation() {}
+
+    /**
+     * Check that the name of a pet is not null.
+     */
+    public static void checkName(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Pet requires a name");
+        }
+    }
+
+    /**
+     * Check that the gender of a pet is {@link PetEntry#GENDER_UNKNOWN},
+     * {@link PetEntry#GENDER_MALE} or {@link PetEntry#GENDER_FEMALE}.
+     */
+    public static void checkGender(Integer gender) {
+        if (gender == null || (gender != PetEntry.GENDER_UNKNOWN
+                && gender != PetEntry.GENDER_MALE && gender != PetEntry.GENDER_FEMALE)) {
+            throw new IllegalArgumentException("Pet requires valid gender");
+        }
+    }
+
+    /**
+     * Check that the weight of a pet, if it is provided, is greater than or equal to 0 kg.
+     */
+    public static void checkWeight(Integer weight) {
+        if (weight != null && weight < 0) {
+            throw new IllegalArgumentException("Pet requires valid weight");
+        }
+    }
+
+    /**
+     * Check all of the values of a new pet. No need to check the breed, any value is valid
+     * (including null).
+     */
+    public static void checkNewPet(String name, Integer gender, Integer weight) {
+        checkName(name);
+        checkGender(gender);
+        checkWeight(weight);
+    }
+}
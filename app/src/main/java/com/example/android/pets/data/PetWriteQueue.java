@@ -0,0 +1,283 @@
+package com.example.android.pets.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commit for the writes made through {@link PetProvider}. Callers on any thread enqueue
+ * their writes, and a single writer thread runs whatever has queued up inside one transaction,
+ * so a burst of writes shares one commit (and one sync to disk) instead of paying for one each.
+ * Every caller blocks until its own write has been committed, then gets its own result back.
+ *
+ * A batch holds at most {@link #MAX_BATCH_SIZE} writes. A write that finds no other write
+ * queued with it is committed right away, so a lone write (say, from the UI thread) never waits
+ * for company. When other writes are already queued, a burst is under way, and the writer waits
+ * at most {@link #MAX_BATCH_LATENCY_MILLIS} after the first write of the batch for more to
+ * arrive. Writes that arrive while a batch is being committed queue up for the next one either
+ * way.
+ *
+ * {@link #shutdown} stops the writer thread once the writes already queued are committed.
+ */
+final class PetWriteQueue {
+
+    /** Most writes committed together in one transaction */
+    private static final int MAX_BATCH_SIZE = 64;
+
+    /** Longest the writer waits for more writes to join a batch before committing it */
+    private static final long MAX_BATCH_LATENCY_MILLIS = 2;
+
+    /**
+     * A single write, run by the writer thread inside the transaction of its batch.
+     */
+    interface Write<T> {
+        T run();
+    }
+
+    /**
+     * Hooks around each batch, run on the writer thread. {@link #onBatchStarted} is called
+     * before the transaction begins, and {@link #onBatchFinished} after it has ended, with
+     * whether it was committed.
+     */
+    interface BatchListener {
+        void onBatchStarted();
+
+        void onBatchFinished(boolean committed);
+    }
+
+    /** Database helper the writes go to */
+    private final SQLiteOpenHelper mDbHelper;
+
+    /** Hooks around each batch */
+    private final BatchListener mListener;
+
+    /** Writes waiting for the writer thread */
+    private final LinkedBlockingQueue<Task<?>> mQueue = new LinkedBlockingQueue<>();
+
+    /** Thread that runs the batches */
+    private final Thread mWriterThread;
+
+    /** Whether the queue was shut down, after which no more writes are taken */
+    private boolean mShutdown;
+
+    /** Number of batches committed, and total number of writes in them */
+    private long mBatchCount;
+    private long mWriteCount;
+
+    /** Number of writes in the largest batch */
+    private int mMaxBatchSize;
+
+    PetWriteQueue(SQLiteOpenHelper dbHelper, BatchListener listener) {
+        mDbHelper = dbHelper;
+        mListener = listener;
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        }, PetWriteQueue.class.getSimpleName());
+        mWriterThread.setDaemon(true);
+        mWriterThread.start();
+    }
+
+    /**
+     * Returns whether the current thread is the writer thread. Writes made from the writer
+     * thread (or from inside another transaction) must run directly instead of being queued,
+     * since they would otherwise wait for themselves.
+     */
+    boolean isWriterThread() {
+        return Thread.currentThread() == mWriterThread;
+    }
+
+    /**
+     * Queue the given write, wait until the batch it joins has been committed, and return its
+     * result. If the write throws, the exception is thrown here, and the other writes of the
+     * batch are committed without it.
+     */
+    <T> T submit(Write<T> write) {
+        Task<T> task = new Task<>(write);
+        synchronized (mQueue) {
+            if (mShutdown) {
+                throw new IllegalStateException("Write queue is shut down");
+            }
+            mQueue.add(task);
+        }
+
+        // Wait for the writer, even if interrupted, since the write can't be taken back
+        boolean interrupted = false;
+        while (true) {
+            try {
+                task.done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (task.error != null) {
+            throw task.error;
+        }
+        return task.result;
+    }
+
+    /**
+     * Stop taking writes, and wait for the writer thread to commit the writes already queued
+     * and stop. Writes submitted from now on throw an {@link IllegalStateException}.
+     */
+    void shutdown() {
+        synchronized (mQueue) {
+            mShutdown = true;
+        }
+        mWriterThread.interrupt();
+        if (isWriterThread()) {
+            return;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mWriterThread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Returns the number of writes waiting for the writer thread. */
+    int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /** Returns the number of batches committed. */
+    synchronized long getBatchCount() {
+        return mBatchCount;
+    }
+
+    /** Returns the total number of writes in the committed batches. */
+    synchronized long getWriteCount() {
+        return mWriteCount;
+    }
+
+    /** Returns the number of writes in the largest batch. */
+    synchronized int getMaxBatchSize() {
+        return mMaxBatchSize;
+    }
+
+    /**
+     * Loop of the writer thread: take the next batch of writes and commit it, until the queue
+     * is shut down and the writes queued before then are committed.
+     */
+    private void runWriter() {
+        ArrayList<Task<?>> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (true) {
+            try {
+                // Wait for the first write, and take the ones queued behind it. Only if there
+                // are some is there a burst worth giving a short while to grow.
+                batch.add(mQueue.take());
+                mQueue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                long deadline = System.nanoTime()
+                        + TimeUnit.MILLISECONDS.toNanos(MAX_BATCH_LATENCY_MILLIS);
+                while (batch.size() > 1 && batch.size() < MAX_BATCH_SIZE) {
+                    Task<?> task = mQueue.poll(deadline - System.nanoTime(),
+                            TimeUnit.NANOSECONDS);
+                    if (task == null) {
+                        break;
+                    }
+                    batch.add(task);
+                }
+            } catch (InterruptedException e) {
+                synchronized (mQueue) {
+                    if (!mShutdown) {
+                        continue;
+                    }
+                }
+                // No more writes can be queued, so commit the rest and stop
+                mQueue.drainTo(batch);
+                while (!batch.isEmpty()) {
+                    ArrayList<Task<?>> chunk = new ArrayList<>(
+                            batch.subList(0, Math.min(MAX_BATCH_SIZE, batch.size())));
+                    batch.subList(0, chunk.size()).clear();
+                    runBatch(chunk);
+                }
+                return;
+            }
+
+            runBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Run the given writes inside one transaction, then release their callers.
+     */
+    private void runBatch(ArrayList<Task<?>> batch) {
+        mListener.onBatchStarted();
+        boolean committed = false;
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            database.beginTransaction();
+            try {
+                // A write that fails is undone by SQLite on its own, so the rest of the batch
+                // can still be committed
+                for (Task<?> task : batch) {
+                    task.run();
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            committed = true;
+        } catch (RuntimeException e) {
+            // The batch couldn't be committed, so every write in it failed
+            for (Task<?> task : batch) {
+                task.error = e;
+            }
+        } finally {
+            mListener.onBatchFinished(committed);
+        }
+
+        synchronized (this) {
+            if (committed) {
+                mBatchCount++;
+                mWriteCount += batch.size();
+            }
+            mMaxBatchSize = Math.max(mMaxBatchSize, batch.size());
+        }
+
+        for (Task<?> task : batch) {
+            task.done.countDown();
+        }
+    }
+
+    /**
+     * A queued write, with its result once it has run.
+     */
+    private static final class Task<T> {
+        final Write<T> write;
+        final CountDownLatch done = new CountDownLatch(1);
+        T result;
+        RuntimeException error;
+
+        Task(Write<T> write) {
+            this.write = write;
+        }
+
+        void run() {
+            try {
+                result = write.run();
+            } catch (RuntimeException e) {
+                error = e;
+            }
+        }
+    }
+}
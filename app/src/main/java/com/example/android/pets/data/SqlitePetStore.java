@@ -0,0 +1,188 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+
+/**
+ * {@link PetStore} backed by the pets table of shelter.db, and the storage engine that
+ * {@link PetProvider} writes its pets through. The provider hands over the values of a pet as
+ * {@link ContentValues}, and the {@link PetStore} methods go through the same code with typed
+ * values. Single-row writes and reads by ID go through the precompiled statements of
+ * {@link PetStatements}, which each thread has its own of, with the breed interned by
+ * {@link PetDbHelper#internBreed}, and scans are keyset queries on the ID, so each page costs
+ * the same.
+ *
+ * The store doesn't know about the query cache or the content observers of the provider. So
+ * only the provider creates it, and the provider invalidates its cache and notifies its
+ * observers after every write it makes through the store.
+ */
+final class SqlitePetStore implements PetStore {
+
+    /** Columns read for every pet scanned, in order */
+    private static final String[] COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    /** Database helper of shelter.db */
+    private final PetDbHelper mDbHelper;
+
+    /** Precompiled statements of each thread for the current writable database */
+    private final ThreadLocal<PetStatements> mStatements = new ThreadLocal<>();
+
+    SqlitePetStore(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    @Override
+    public long insert(String name, String breed, int gender, int weight) {
+        PetValidation.checkNewPet(name, gender, weight);
+        return insert(toValues(name, breed, gender, weight));
+    }
+
+    @Override
+    public boolean update(long id, String name, String breed, int gender, int weight) {
+        PetValidation.checkNewPet(name, gender, weight);
+        return updateById(id, toValues(name, breed, gender, weight)) != 0;
+    }
+
+    @Override
+    public boolean delete(long id) {
+        return deleteById(id) != 0;
+    }
+
+    /**
+     * Insert a pet with the given values of the {@link PetEntry} columns, already validated,
+     * with the precompiled insert statement when the values fit it. Return the ID of the new
+     * pet, or -1 if it couldn't be inserted.
+     */
+    long insert(ContentValues values) {
+        values = mDbHelper.toStoredValues(values);
+        if (PetStatements.canInsert(values)) {
+            return getStatements().insert(values);
+        }
+        return mDbHelper.getWritableDatabase().insert(PetEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Apply the given values of the {@link PetEntry} columns, already validated, to the pet
+     * with the given ID, with the precompiled update statement when they set every column.
+     * Return the number of pets updated.
+     */
+    int updateById(long id, ContentValues values) {
+        values = mDbHelper.toStoredValues(values);
+        if (PetStatements.canUpdate(values)) {
+            return getStatements().updateById(id, values);
+        }
+        return mDbHelper.getWritableDatabase().update(PetEntry.TABLE_NAME, values,
+                PetEntry._ID + "=?", new String[] { String.valueOf(id) });
+    }
+
+    /**
+     * Apply the given values of the {@link PetEntry} columns, already validated, to the pets
+     * matching the given selection of the pets table. Return the number of pets updated.
+     */
+    int update(ContentValues values, String selection, String[] selectionArgs) {
+        return mDbHelper.getWritableDatabase().update(PetEntry.TABLE_NAME,
+                mDbHelper.toStoredValues(values), selection, selectionArgs);
+    }
+
+    /**
+     * Delete the pet with the given ID with the precompiled statement. Return the number of
+     * pets deleted.
+     */
+    int deleteById(long id) {
+        return getStatements().deleteById(id);
+    }
+
+    /**
+     * Delete the pets matching the given selection of the pets table. Return the number of
+     * pets deleted.
+     */
+    int delete(String selection, String[] selectionArgs) {
+        return mDbHelper.getWritableDatabase().delete(PetEntry.TABLE_NAME, selection,
+                selectionArgs);
+    }
+
+    @Override
+    public Pet get(long id) {
+        return getStatements().selectById(id);
+    }
+
+    @Override
+    public int scan(int gender, int minWeight, int maxWeight, long afterId, int limit,
+                    Visitor visitor) {
+        StringBuilder selection = new StringBuilder(PetEntry._ID + " > ? AND "
+                + PetEntry.COLUMN_PET_WEIGHT + " BETWEEN ? AND ?");
+        ArrayList<String> args = new ArrayList<>();
+        args.add(String.valueOf(afterId));
+        args.add(String.valueOf(minWeight));
+        args.add(String.valueOf(maxWeight));
+        if (gender != ANY_GENDER) {
+            selection.append(" AND " + PetEntry.COLUMN_PET_GENDER + " = ?");
+            args.add(String.valueOf(gender));
+        }
+
+        Cursor cursor = mDbHelper.getReadableDatabase().query(PetDbHelper.PETS_VIEW_NAME,
+                COLUMNS, selection.toString(), args.toArray(new String[args.size()]), null, null,
+                PetEntry._ID, String.valueOf(limit));
+        try {
+            int visited = 0;
+            while (cursor.moveToNext()) {
+                visitor.visit(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                        cursor.getInt(3), cursor.getInt(4));
+                visited++;
+            }
+            return visited;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public int size() {
+        Cursor cursor = mDbHelper.getReadableDatabase().rawQuery(
+                "SELECT COUNT(*) FROM " + PetEntry.TABLE_NAME, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the precompiled statements of the calling thread for the writable database,
+     * compiling them again if the database has been reopened.
+     */
+    private PetStatements getStatements() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        PetStatements statements = mStatements.get();
+        if (statements == null || statements.getDatabase() != database) {
+            if (statements != null) {
+                statements.close();
+            }
+            statements = new PetStatements(database);
+            mStatements.set(statements);
+        }
+        return statements;
+    }
+
+    /**
+     * Returns the given values of a pet as {@link ContentValues} for {@link PetStatements}.
+     */
+    private static ContentValues toValues(String name, String breed, int gender, int weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, breed);
+        values.put(PetEntry.COLUMN_PET_GENDER, gender);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+        return values;
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetProvider;
+import com.example.android.pets.data.PetTestData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pages through a catalog of pets with a {@link PetPagedList} over the real provider: the first
+ * screen is loaded without reading the rest, scrolling loads the pages ahead and drops those far
+ * behind, a jump loads the pages around the new position, and a list loaded after the pets
+ * changed keeps the pets that were on screen in view, with every pet at its place.
+ *
+ * The catalog has {@link #DEFAULT_ROW_COUNT} pets. Setting pets.perf.pagingRows (to 500000, say)
+ * seeds that many instead and reports how long the steps took. The catalog is seeded once and
+ * the steps run in order on it, since seeding it takes most of the time.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetPagedListTest {
+
+    /** Number of pets in the catalog unless pets.perf.pagingRows is set */
+    private static final int DEFAULT_ROW_COUNT = 10000;
+
+    private static final int PAGE_SIZE = 50;
+    private static final int PREFETCH_DISTANCE = 100;
+
+    /** Most pages a list keeps: those within the drop distance on either side, and partial ends */
+    private static final int MAX_LOADED_PAGES =
+            2 * PetPagedList.DROP_FACTOR * PREFETCH_DISTANCE / PAGE_SIZE + 2;
+
+    /** Most positions scrolled through, and the step between them */
+    private static final int SCROLL_DISTANCE = 20000;
+    private static final int SCROLL_STEP = 10;
+
+    /** Number of pets removed from the start, and added at the end, between two lists */
+    private static final int REMOVED_COUNT = 10;
+    private static final int ADDED_COUNT = 100;
+
+    /** Whether a catalog size was asked for, and how long the steps took is reported */
+    private static final boolean REPORT = System.getProperty("pets.perf.pagingRows") != null;
+
+    /** Loads the pages on the calling thread, so a page is read when loadAround returns */
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final int mRowCount = Integer.getInteger("pets.perf.pagingRows", DEFAULT_ROW_COUNT);
+
+    /** Positions scrolled through */
+    private final int mScrollDistance = Math.min(SCROLL_DISTANCE, mRowCount / 2);
+
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(PetProvider.class,
+                PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.getApplication().getContentResolver();
+        PetTestData.seed(mResolver, 0, mRowCount);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void pagesAroundTheScrollPosition() {
+        PetPagedList list = loadFirstScreen();
+        scroll(list);
+        jump(list, mRowCount * 3 / 4);
+        keepPositionAfterChanges(list, mRowCount / 2);
+    }
+
+    /**
+     * The first list only reads the pages within the prefetch distance of the start.
+     */
+    private PetPagedList loadFirstScreen() {
+        long start = System.nanoTime();
+        PetPagedList list = PetPagedList.load(mResolver, DIRECT_EXECUTOR, PAGE_SIZE,
+                PREFETCH_DISTANCE, null, null);
+        report("First screen of " + mRowCount + " pets loaded", start);
+
+        assertEquals(mRowCount, list.size());
+        assertTrue(list.isLoaded(0, PREFETCH_DISTANCE));
+        assertEquals(1, list.get(0).id);
+        assertNull(list.get(PREFETCH_DISTANCE + PAGE_SIZE));
+        assertNull(list.get(mRowCount - 1));
+        assertEquals(PREFETCH_DISTANCE / PAGE_SIZE + 1, countLoadedPages(list));
+        return list;
+    }
+
+    /**
+     * Scrolling loads the pets at every position shown, loading each page once, and the list
+     * never keeps more than the pages within the drop distance.
+     */
+    private void scroll(PetPagedList list) {
+        final int[] loaded = { 0 };
+        list.setCallback(new PetPagedList.Callback() {
+            @Override
+            public void onPetsLoaded(int start, int count) {
+                loaded[0] += count;
+            }
+        });
+        long start = System.nanoTime();
+        for (int position = 0; position < mScrollDistance; position += SCROLL_STEP) {
+            list.loadAround(position);
+            ShadowLooper.idleMainLooper();
+            assertPetAt(list, position);
+            if (position % (10 * PAGE_SIZE) == 0) {
+                assertTrue(countLoadedPages(list) <= MAX_LOADED_PAGES);
+            }
+        }
+        report("Scrolled through " + mScrollDistance + " pets", start);
+        assertNull("Pages far behind weren't dropped", list.get(0));
+        // Every page after the first screen, up to the prefetch distance past the last position,
+        // was loaded once
+        int lastPosition = mScrollDistance - SCROLL_STEP;
+        int end = ((lastPosition + PREFETCH_DISTANCE) / PAGE_SIZE + 1) * PAGE_SIZE;
+        assertEquals(end - list.getInitialEnd(), loaded[0]);
+    }
+
+    /**
+     * Jumping far down loads the pages around the new position and drops the old ones.
+     */
+    private void jump(PetPagedList list, int position) {
+        long start = System.nanoTime();
+        list.loadAround(position);
+        ShadowLooper.idleMainLooper();
+        report("Jumped to " + position, start);
+
+        assertTrue(list.isLoaded(Math.max(0, position - PREFETCH_DISTANCE),
+                Math.min(mRowCount, position + PREFETCH_DISTANCE)));
+        assertPetAt(list, position);
+        assertNull(list.get(mScrollDistance));
+        assertTrue(countLoadedPages(list) <= MAX_LOADED_PAGES);
+    }
+
+    /**
+     * After pets are removed before the position shown and added at the end, the next list is
+     * loaded around the pets shown, moved up by the pets removed, and has every pet once, at
+     * its place in the ID order, from the first pet to the last one added.
+     */
+    private void keepPositionAfterChanges(PetPagedList list, int position) {
+        list.loadAround(position);
+        ShadowLooper.idleMainLooper();
+        Pet shown = list.get(position);
+        assertNotNull(shown);
+
+        int removed = mResolver.delete(PetEntry.CONTENT_URI, PetEntry._ID + " <= ?",
+                new String[] { String.valueOf(REMOVED_COUNT) });
+        int added = mResolver.bulkInsert(PetEntry.CONTENT_URI,
+                PetTestData.pets(mRowCount, ADDED_COUNT));
+        assertEquals(REMOVED_COUNT, removed);
+        assertEquals(ADDED_COUNT, added);
+
+        long start = System.nanoTime();
+        PetPagedList next = PetPagedList.load(mResolver, DIRECT_EXECUTOR, PAGE_SIZE,
+                PREFETCH_DISTANCE, list, null);
+        list.setCallback(null);
+        report("Reloaded around " + position, start);
+
+        assertEquals(mRowCount - removed + added, next.size());
+        assertEquals(-removed, next.getShift());
+        assertEquals(position - removed, next.getLastPosition());
+        assertEquals(shown.id, next.get(position - removed).id);
+        assertTrue(next.isLoaded(next.getInitialStart(), next.getInitialEnd()));
+        for (int p = next.getInitialStart(); p < next.getInitialEnd(); p++) {
+            assertPetAt(next, p, removed);
+        }
+
+        // Scroll back to the first pet, then on to the last one, which reads every page of
+        // the list from a neighbor
+        next.setCallback(new PetPagedList.Callback() {
+            @Override
+            public void onPetsLoaded(int start, int count) {
+            }
+        });
+        start = System.nanoTime();
+        for (int p = position - removed; p >= 0; p--) {
+            if (p % PAGE_SIZE == PAGE_SIZE - 1 || p == position - removed) {
+                next.loadAround(p);
+                ShadowLooper.idleMainLooper();
+            }
+            assertPetAt(next, p, removed);
+        }
+        for (int p = 0; p < next.size(); p++) {
+            if (p % PAGE_SIZE == 0) {
+                next.loadAround(p);
+                ShadowLooper.idleMainLooper();
+            }
+            assertPetAt(next, p, removed);
+        }
+        report("Read all " + next.size() + " pets of the next list", start);
+    }
+
+    /**
+     * Assert that the pet at the given position is loaded, and is the one seeded there.
+     */
+    private static void assertPetAt(PetPagedList list, int position) {
+        assertPetAt(list, position, 0);
+    }
+
+    /**
+     * Assert that the pet at the given position is loaded, and is the one seeded the given
+     * number of positions after it.
+     */
+    private static void assertPetAt(PetPagedList list, int position, int removed) {
+        Pet pet = list.get(position);
+        assertNotNull("No pet at " + position, pet);
+        assertEquals("Pet at " + position, position + removed + 1, pet.id);
+        assertEquals(PetTestData.name(position + removed), pet.name);
+    }
+
+    private static int countLoadedPages(PetPagedList list) {
+        int pages = 0;
+        for (int position = 0; position < list.size(); position += PAGE_SIZE) {
+            if (list.get(position) != null) {
+                pages++;
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Print how long a step that started at the given time took, if reporting.
+     */
+    private static void report(String step, long start) {
+        if (REPORT) {
+            System.out.println(step + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.android.pets.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Median and 99th percentile latencies of a set of operations, each keyed by the operation
+ * and the URI pattern it ran on, such as "query.pets/#".
+ *
+ * A baseline is kept as a properties file with one "key.p50_us" and one "key.p99_us" entry per
+ * operation, in microseconds, and is compared with the latencies of a new run by
+ * {@link #findRegressions}.
+ */
+final class LatencyBaseline {
+
+    private static final String P50_SUFFIX = ".p50_us";
+    private static final String P99_SUFFIX = ".p99_us";
+
+    /** Median and 99th percentile of each operation, in microseconds */
+    private final Map<String, long[]> mPercentiles = new TreeMap<>();
+
+    /**
+     * Read a baseline from the given properties stream.
+     */
+    static LatencyBaseline read(InputStream in) throws IOException {
+        Properties properties = new Properties();
+        properties.load(in);
+        LatencyBaseline baseline = new LatencyBaseline();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.endsWith(P50_SUFFIX)) {
+                String key = name.substring(0, name.length() - P50_SUFFIX.length());
+                String p99 = properties.getProperty(key + P99_SUFFIX);
+                if (p99 == null) {
+                    throw new IOException("No " + key + P99_SUFFIX + " for " + name);
+                }
+                baseline.mPercentiles.put(key, new long[] {
+                        Long.parseLong(properties.getProperty(name).trim()),
+                        Long.parseLong(p99.trim()) });
+            }
+        }
+        return baseline;
+    }
+
+    /**
+     * Add the operation with the given key, with the given latencies in nanoseconds, which are
+     * sorted in place.
+     */
+    void put(String key, long[] nanos) {
+        Arrays.sort(nanos);
+        mPercentiles.put(key, new long[] {
+                percentile(nanos, 50) / 1000, percentile(nanos, 99) / 1000 });
+    }
+
+    /**
+     * Returns the given percentile of the given sorted latencies, by nearest rank.
+     */
+    private static long percentile(long[] sorted, int percent) {
+        int rank = (int) (((long) sorted.length * percent + 99) / 100);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * Returns a line for every operation of this run whose median or 99th percentile is more
+     * than the given factor slower than in the given baseline, leaving the given number of
+     * microseconds of slack on top for operations so fast that timer noise would dominate.
+     * Operations missing from either side are not compared.
+     */
+    List<String> findRegressions(LatencyBaseline baseline, double maxSlowdown,
+                                 long slackMicros) {
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, long[]> entry : mPercentiles.entrySet()) {
+            long[] expected = baseline.mPercentiles.get(entry.getKey());
+            if (expected == null) {
+                continue;
+            }
+            long[] actual = entry.getValue();
+            for (int i = 0; i < 2; i++) {
+                long limit = (long) (expected[i] * maxSlowdown) + slackMicros;
+                if (actual[i] > limit) {
+                    regressions.add(entry.getKey() + (i == 0 ? " p50 " : " p99 ") + actual[i]
+                            + " us, baseline " + expected[i] + " us, limit " + limit + " us");
+                }
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * Write the latencies to the given writer as a baseline properties file.
+     */
+    void write(Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        out.println("# Median and 99th percentile latencies of the PetProvider operations, in");
+        out.println("# microseconds. Written by PetProviderPerformanceTest with");
+        out.println("# -Dpets.perf.writeBaseline=<file>.");
+        for (Map.Entry<String, long[]> entry : mPercentiles.entrySet()) {
+            out.println(entry.getKey() + P50_SUFFIX + "=" + entry.getValue()[0]);
+            out.println(entry.getKey() + P99_SUFFIX + "=" + entry.getValue()[1]);
+        }
+        out.flush();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder table = new StringBuilder("operation  p50_us  p99_us\n");
+        for (Map.Entry<String, long[]> entry : mPercentiles.entrySet()) {
+            table.append(entry.getKey()).append("  ").append(entry.getValue()[0]).append("  ")
+                    .append(entry.getValue()[1]).append('\n');
+        }
+        return table.toString();
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.android.pets.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that with write-ahead logging, {@link PetDbHelper} lets readers run while a long write
+ * transaction is open.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetDbHelperConcurrencyTest {
+
+    /** Number of pets committed before the long transaction, and written inside it */
+    private static final int PET_COUNT = 2000;
+
+    /** Number of reads that must finish while the transaction is open */
+    private static final int READ_COUNT = 50;
+
+    /** How long the readers get, and how long the writer keeps its transaction open at most */
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private PetDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new PetDbHelper(RuntimeEnvironment.getApplication());
+        insertPets(0, PET_COUNT);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void readersProgressWhileWriteTransactionIsOpen() throws Exception {
+        final CountDownLatch written = new CountDownLatch(1);
+        final CountDownLatch readsDone = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase db = mDbHelper.getWritableDatabase();
+                boolean committed = false;
+                db.beginTransaction();
+                try {
+                    for (int i = 0; i < PET_COUNT; i++) {
+                        db.insert(PetEntry.TABLE_NAME, null,
+                                mDbHelper.toStoredValues(PetTestData.pet(PET_COUNT + i)));
+                    }
+                    written.countDown();
+                    // Hold the transaction open until the readers are done
+                    readsDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    db.setTransactionSuccessful();
+                    committed = true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    db.endTransaction();
+                    mDbHelper.onTransactionEnded(committed);
+                }
+            }
+        }, "long writer");
+        writer.start();
+        assertTrue("Writer didn't get to write",
+                written.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // Read on a thread of its own, so that a reader blocked by the writer fails the test
+        // instead of waiting for the transaction
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> reads = reader.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    int reads = 0;
+                    for (int i = 0; i < READ_COUNT; i++) {
+                        // The readers see the pets committed before the transaction, not
+                        // the ones written inside it
+                        assertEquals(PET_COUNT, countPets());
+                        reads++;
+                    }
+                    return reads;
+                }
+            });
+            assertEquals(READ_COUNT, (int) reads.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertTrue("Transaction ended before the reads", writer.isAlive());
+        } finally {
+            readsDone.countDown();
+            reader.shutdown();
+            writer.join();
+        }
+
+        assertEquals(2 * PET_COUNT, countPets());
+    }
+
+    /**
+     * Insert the given number of pets in one transaction, from the given index on.
+     */
+    private void insertPets(int start, int count) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        boolean committed = false;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                db.insert(PetEntry.TABLE_NAME, null,
+                        mDbHelper.toStoredValues(PetTestData.pet(start + i)));
+            }
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            mDbHelper.onTransactionEnded(committed);
+        }
+    }
+
+    private int countPets() {
+        return (int) DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(),
+                PetDbHelper.PETS_VIEW_NAME);
+    }
+}
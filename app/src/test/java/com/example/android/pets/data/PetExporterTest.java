@@ -0,0 +1,107 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.ParcelFileDescriptor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link PetExporter} writes names and breeds of any length into the binary format,
+ * including ones longer than {@link java.io.DataOutputStream#writeUTF} can hold, and ends the
+ * stream with its end marker.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetExporterTest {
+
+    /** Length of the long name, in characters that each take 3 bytes in UTF-8 */
+    private static final int LONG_NAME_LENGTH = 30000;
+
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(PetProvider.class,
+                PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.getApplication().getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void binaryExportHoldsLongNames() throws Exception {
+        char[] chars = new char[LONG_NAME_LENGTH];
+        Arrays.fill(chars, '猫');
+        String longName = new String(chars);
+        ContentValues first = PetTestData.pet(1);
+        first.put(PetEntry.COLUMN_PET_NAME, longName);
+        mResolver.insert(PetEntry.CONTENT_URI, first);
+        // Without a breed
+        ContentValues second = PetTestData.pet(0);
+        mResolver.insert(PetEntry.CONTENT_URI, second);
+
+        // The exporter only needs a file descriptor to write to, so give it a file
+        File file = File.createTempFile("pets", ".bin");
+        ParcelFileDescriptor output = ParcelFileDescriptor.open(file,
+                ParcelFileDescriptor.MODE_WRITE_ONLY | ParcelFileDescriptor.MODE_TRUNCATE);
+        new PetExporter(new PetDbHelper(RuntimeEnvironment.getApplication()))
+                .writeDataToPipe(output, PetEntry.CONTENT_URI, PetEntry.BINARY_TYPE, null, null);
+        output.close();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+        try {
+            assertEquals(PetEntry.BINARY_MAGIC, in.readInt());
+            assertEquals(PetEntry.BINARY_VERSION, in.readInt());
+
+            assertEquals(1, in.readLong());
+            assertEquals(longName, readString(in));
+            assertTrue(in.readBoolean());
+            assertEquals(first.getAsString(PetEntry.COLUMN_PET_BREED), readString(in));
+            assertEquals((int) first.getAsInteger(PetEntry.COLUMN_PET_GENDER), in.readByte());
+            assertEquals((int) first.getAsInteger(PetEntry.COLUMN_PET_WEIGHT), in.readInt());
+
+            assertEquals(2, in.readLong());
+            assertEquals(second.getAsString(PetEntry.COLUMN_PET_NAME), readString(in));
+            assertFalse(in.readBoolean());
+            assertEquals((int) second.getAsInteger(PetEntry.COLUMN_PET_GENDER), in.readByte());
+            assertEquals((int) second.getAsInteger(PetEntry.COLUMN_PET_WEIGHT), in.readInt());
+
+            assertEquals(-1, in.readLong());
+            assertEquals(-1, in.read());
+        } finally {
+            in.close();
+            file.delete();
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, Charset.forName("UTF-8"));
+    }
+}
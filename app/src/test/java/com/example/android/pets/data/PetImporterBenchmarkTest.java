@@ -0,0 +1,173 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Imports a CSV file through {@link PetImporter} into the real provider, and measures the most
+ * heap the import used on top of what was in use before it.
+ *
+ * The file has {@link #DEFAULT_ROW_COUNT} records, one in every {@link #REJECTED_INTERVAL} of
+ * them with a negative weight, and is written to disk first so that the import streams it like
+ * a real file. The test fails if a record is lost, if the progress isn't reported for every
+ * chunk, or if the heap grows by more than {@link #MAX_HEAP_GROWTH_BYTES}, which would mean the
+ * import holds on to the records it read.
+ *
+ * Setting pets.perf.importRows (to a million, say) imports that many records instead and
+ * reports the import rate and the heap growth.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetImporterBenchmarkTest {
+
+    /** Number of records in the file unless pets.perf.importRows is set */
+    private static final int DEFAULT_ROW_COUNT = 20000;
+
+    /** One record in this many is invalid */
+    private static final int REJECTED_INTERVAL = 1000;
+
+    /** Most the heap may grow during the import */
+    private static final long MAX_HEAP_GROWTH_BYTES = 64L * 1024 * 1024;
+
+    /** Number of progress reports between measurements of the heap */
+    private static final int HEAP_SAMPLE_INTERVAL = 20;
+
+    /** Whether a number of records was asked for, and the import rate is reported */
+    private static final boolean REPORT = System.getProperty("pets.perf.importRows") != null;
+
+    private final int mRowCount = Integer.getInteger("pets.perf.importRows", DEFAULT_ROW_COUNT);
+
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mProvider = Robolectric.setupContentProvider(PetProvider.class,
+                PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.getApplication().getContentResolver();
+        mFile = File.createTempFile("pets", ".csv");
+        writeCsv(mFile, mRowCount);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mFile.delete();
+    }
+
+    @Test
+    public void importCsv() throws IOException {
+        final long heapBefore = usedHeap();
+        final long[] peakHeap = { heapBefore };
+        final int[] progressCount = { 0 };
+        PetImporter.ProgressListener listener = new PetImporter.ProgressListener() {
+            @Override
+            public void onProgress(long recordsRead, long petsImported, long recordsRejected) {
+                // Robolectric keeps the values of every insert, which would count against the
+                // import
+                PetTestData.forgetStatements(mResolver);
+
+                // Collecting the garbage to measure the heap takes a while, so only measure it
+                // every few chunks
+                if (progressCount[0]++ % HEAP_SAMPLE_INTERVAL == 0) {
+                    peakHeap[0] = Math.max(peakHeap[0], usedHeap());
+                }
+            }
+        };
+
+        long start = System.nanoTime();
+        PetImporter.Result result;
+        Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mFile),
+                "UTF-8"));
+        try {
+            result = PetImporter.importCsv(mResolver, reader, listener);
+        } finally {
+            reader.close();
+        }
+        long nanos = System.nanoTime() - start;
+
+        int rejected = mRowCount / REJECTED_INTERVAL;
+        if (REPORT) {
+            System.out.println("Imported " + result.petsImported + " of " + result.recordsRead
+                    + " records in " + nanos / 1000000 + " ms, "
+                    + result.recordsRead * 1000000000L / Math.max(1, nanos) + " records/s, heap "
+                    + (peakHeap[0] - heapBefore) / 1024 + " KiB above the start");
+        }
+        assertEquals(mRowCount, result.recordsRead);
+        assertEquals(rejected, result.recordsRejected);
+        assertEquals(mRowCount - rejected, result.petsImported);
+        assertEquals(mRowCount - rejected, countPets());
+        assertTrue("Progress reported " + progressCount[0] + " times",
+                progressCount[0] >= result.petsImported / 500);
+        assertTrue("Heap grew by " + (peakHeap[0] - heapBefore) + " bytes",
+                peakHeap[0] - heapBefore <= MAX_HEAP_GROWTH_BYTES);
+    }
+
+    /**
+     * Write a CSV file of the given number of pets, with every {@link #REJECTED_INTERVAL}th
+     * one invalid.
+     */
+    private static void writeCsv(File file, int count) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8"));
+        try {
+            writer.write(PetEntry.COLUMN_PET_NAME + "," + PetEntry.COLUMN_PET_BREED + ","
+                    + PetEntry.COLUMN_PET_GENDER + "," + PetEntry.COLUMN_PET_WEIGHT + "\n");
+            for (int i = 0; i < count; i++) {
+                ContentValues pet = PetTestData.pet(i);
+                String breed = pet.getAsString(PetEntry.COLUMN_PET_BREED);
+                writer.write(pet.getAsString(PetEntry.COLUMN_PET_NAME) + ","
+                        + (breed == null ? "" : breed) + ","
+                        + pet.getAsInteger(PetEntry.COLUMN_PET_GENDER) + ","
+                        + (i % REJECTED_INTERVAL == REJECTED_INTERVAL - 1 ? -1
+                                : pet.getAsInteger(PetEntry.COLUMN_PET_WEIGHT)) + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /** Returns the heap in use after a garbage collection. */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private int countPets() {
+        Cursor cursor = mResolver.query(PetStatsEntry.CONTENT_URI,
+                new String[] { PetStatsEntry.COLUMN_PET_COUNT }, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
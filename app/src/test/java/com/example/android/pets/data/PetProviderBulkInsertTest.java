@@ -0,0 +1,128 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that {@link PetProvider#bulkInsert}, which writes its rows in a few transactions,
+ * writes every row and notifies the listeners once.
+ *
+ * Setting pets.perf.bulkInsertSpeedup also compares its throughput with inserting the same
+ * rows one {@link ContentResolver#insert} at a time, each committed on its own, and fails
+ * unless the bulk insert is at least that many times faster. Wall clock times vary too much
+ * between machines for that to run by default.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderBulkInsertTest {
+
+    /** Number of pets inserted by each path, which takes several bulk insert chunks */
+    private static final int ROW_COUNT = 5000;
+
+    /** Number of rows inserted by each path before timing it */
+    private static final int WARM_UP_COUNT = 500;
+
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(PetProvider.class,
+                PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.getApplication().getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void bulkInsertWritesEveryRowAndNotifiesOnce() {
+        long delivered = getDeliveredNotifications();
+
+        int inserted = mResolver.bulkInsert(PetEntry.CONTENT_URI,
+                PetTestData.pets(0, ROW_COUNT));
+
+        assertEquals(ROW_COUNT, inserted);
+        assertEquals(ROW_COUNT, countPets());
+        assertEquals(delivered + 1, getDeliveredNotifications());
+    }
+
+    @Test
+    public void bulkInsertIsFasterThanPerRowInserts() {
+        String minSpeedup = System.getProperty("pets.perf.bulkInsertSpeedup");
+        assumeTrue(minSpeedup != null);
+
+        insertPerRow(0, WARM_UP_COUNT);
+        mResolver.bulkInsert(PetEntry.CONTENT_URI, PetTestData.pets(0, WARM_UP_COUNT));
+
+        long perRowNanos = insertPerRow(0, ROW_COUNT);
+
+        ContentValues[] pets = PetTestData.pets(0, ROW_COUNT);
+        long start = System.nanoTime();
+        int inserted = mResolver.bulkInsert(PetEntry.CONTENT_URI, pets);
+        long bulkNanos = System.nanoTime() - start;
+
+        assertEquals(ROW_COUNT, inserted);
+        assertEquals(2 * (WARM_UP_COUNT + ROW_COUNT), countPets());
+        System.out.println("per-row: " + rowsPerSecond(perRowNanos) + " rows/s, bulk: "
+                + rowsPerSecond(bulkNanos) + " rows/s");
+        assertTrue("bulkInsert took " + bulkNanos / 1000000 + " ms, per-row inserts took "
+                        + perRowNanos / 1000000 + " ms",
+                bulkNanos * Double.parseDouble(minSpeedup) <= perRowNanos);
+    }
+
+    /**
+     * Insert the given number of pets one at a time, from the given index on, and return how
+     * long it took in nanoseconds.
+     */
+    private long insertPerRow(int start, int count) {
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            Uri uri = mResolver.insert(PetEntry.CONTENT_URI, PetTestData.pet(start + i));
+            assertNotNull(uri);
+        }
+        return System.nanoTime() - startNanos;
+    }
+
+    private int countPets() {
+        Cursor cursor = mResolver.query(PetStatsEntry.CONTENT_URI,
+                new String[] { PetStatsEntry.COLUMN_PET_COUNT }, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Returns the number of change notifications the provider has sent. */
+    private long getDeliveredNotifications() {
+        Bundle stats = mResolver.call(PetEntry.CONTENT_URI,
+                PetContract.METHOD_GET_NOTIFICATION_STATS, null, null);
+        return stats.getLong(PetContract.KEY_NOTIFICATIONS_DELIVERED);
+    }
+
+    private static long rowsPerSecond(long nanos) {
+        return ROW_COUNT * 1000000000L / Math.max(1, nanos);
+    }
+}
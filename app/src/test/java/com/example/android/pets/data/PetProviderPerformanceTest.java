@@ -0,0 +1,289 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetShelterEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Latency regression suite for {@link PetProvider}: seeds the real provider with a large
+ * catalog through a {@link ContentResolver} and times every operation on every URI pattern.
+ * With pets.perf.checkBaseline set to true, it fails when the median or 99th percentile of any
+ * of them is slower than the checked-in baseline (provider_latency_baseline.properties)
+ * allows. Latencies depend on the machine, so by default the operations only have to succeed,
+ * and the baseline is only compared with on the machine it was recorded on.
+ *
+ * The run is configured with system properties, which the build forwards to the tests:
+ * pets.perf.rows (pets seeded, 20000 by default), pets.perf.iterations (timed calls per
+ * operation, 200 by default), pets.perf.checkBaseline, pets.perf.maxSlowdown (how many times
+ * slower than the baseline an operation may be, 2 by default), pets.perf.slackMicros
+ * (microseconds allowed on top, 500 by default), and pets.perf.writeBaseline (a file to write
+ * the latencies of the run to as a new baseline, instead of comparing them).
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderPerformanceTest {
+
+    private static final String BASELINE_RESOURCE = "provider_latency_baseline.properties";
+
+    /** Number of shelters seeded, and of pets seeded in each */
+    private static final int SHELTER_COUNT = 3;
+    private static final int SHELTER_PET_COUNT = 1000;
+
+    /** Number of pets in a page, in a bulk insert, and in a batch */
+    private static final int PAGE_SIZE = 50;
+    private static final int BULK_INSERT_SIZE = 100;
+    private static final int BATCH_SIZE = 10;
+
+    /** An operation timed by {@link #measure} */
+    private interface Operation {
+        void run(int iteration) throws Exception;
+    }
+
+    private final int mRowCount = Integer.getInteger("pets.perf.rows", 20000);
+    private final int mIterations = Integer.getInteger("pets.perf.iterations", 200);
+
+    /** Seeded, so every run makes the same calls */
+    private final Random mRandom = new Random(17);
+
+    /** Latencies of this run */
+    private final LatencyBaseline mResults = new LatencyBaseline();
+
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(PetProvider.class,
+                PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.getApplication().getContentResolver();
+        PetTestData.seed(mResolver, 0, mRowCount);
+        for (int shelter = 1; shelter <= SHELTER_COUNT; shelter++) {
+            Uri uri = PetShelterEntry.buildPetsUri(shelter);
+            for (int i = 0; i < SHELTER_PET_COUNT; i++) {
+                mResolver.insert(uri, PetTestData.pet(i));
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void latenciesStayWithinBaseline() throws Exception {
+        measureQueries();
+        measureWrites();
+
+        String baselineOut = System.getProperty("pets.perf.writeBaseline");
+        if (baselineOut == null && !Boolean.getBoolean("pets.perf.checkBaseline")) {
+            return;
+        }
+        System.out.println(mResults);
+        if (baselineOut != null) {
+            Writer writer = new FileWriter(baselineOut);
+            try {
+                mResults.write(writer);
+            } finally {
+                writer.close();
+            }
+            return;
+        }
+
+        LatencyBaseline baseline;
+        InputStream in = getClass().getResourceAsStream(BASELINE_RESOURCE);
+        assertNotNull("No baseline " + BASELINE_RESOURCE, in);
+        try {
+            baseline = LatencyBaseline.read(in);
+        } finally {
+            in.close();
+        }
+        List<String> regressions = mResults.findRegressions(baseline,
+                Double.parseDouble(System.getProperty("pets.perf.maxSlowdown", "2")),
+                Long.getLong("pets.perf.slackMicros", 500));
+        assertTrue("Slower than the baseline:\n" + join(regressions), regressions.isEmpty());
+    }
+
+    private void measureQueries() throws Exception {
+        measure("query.pets", new Operation() {
+            @Override
+            public void run(int iteration) {
+                Uri firstPage = PetEntry.buildFirstPageUri(PetEntry.COLUMN_PET_NAME, PAGE_SIZE);
+                read(PetEntry.buildNextPageUri(firstPage,
+                        PetTestData.name(mRandom.nextInt(mRowCount)), 0), null, null);
+            }
+        });
+        measure("query.pets/#", new Operation() {
+            @Override
+            public void run(int iteration) {
+                read(ContentUris.withAppendedId(PetEntry.CONTENT_URI, randomId()), null, null);
+            }
+        });
+        measure("query.pets/search", new Operation() {
+            @Override
+            public void run(int iteration) {
+                String name = PetTestData.name(mRandom.nextInt(mRowCount));
+                read(PetEntry.buildSearchUri(name.substring(0, Math.min(4, name.length()))),
+                        null, null);
+            }
+        });
+        measure("query.pets/stats", new Operation() {
+            @Override
+            public void run(int iteration) {
+                read(PetStatsEntry.CONTENT_URI, null, null);
+            }
+        });
+        measure("query.pets/changes", new Operation() {
+            @Override
+            public void run(int iteration) {
+                read(PetChangeEntry.buildChangesSinceUri(mRowCount - 1 - mRandom.nextInt(100)),
+                        null, null);
+            }
+        });
+        measure("query.shelters/#/pets/#", new Operation() {
+            @Override
+            public void run(int iteration) {
+                read(ContentUris.withAppendedId(PetShelterEntry.buildPetsUri(randomShelter()),
+                        1 + mRandom.nextInt(SHELTER_PET_COUNT)), null, null);
+            }
+        });
+        measure("query.shelters/pets", new Operation() {
+            @Override
+            public void run(int iteration) {
+                read(PetShelterEntry.CONTENT_URI, PetEntry.COLUMN_PET_WEIGHT + " = ?",
+                        new String[] { String.valueOf(1 + mRandom.nextInt(60)) });
+            }
+        });
+    }
+
+    private void measureWrites() throws Exception {
+        final long[] newIds = new long[mIterations + mIterations / 10];
+        measure("insert.pets", new Operation() {
+            @Override
+            public void run(int iteration) {
+                Uri uri = mResolver.insert(PetEntry.CONTENT_URI,
+                        PetTestData.pet(mRandom.nextInt(mRowCount)));
+                newIds[iteration] = ContentUris.parseId(uri);
+            }
+        });
+        measure("update.pets/#", new Operation() {
+            @Override
+            public void run(int iteration) {
+                ContentValues values = new ContentValues();
+                values.put(PetEntry.COLUMN_PET_WEIGHT, 1 + mRandom.nextInt(60));
+                mResolver.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI, randomId()),
+                        values, null, null);
+            }
+        });
+        measure("delete.pets/#", new Operation() {
+            @Override
+            public void run(int iteration) {
+                mResolver.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI,
+                        newIds[iteration]), null, null);
+            }
+        });
+        measure("bulkInsert.pets", new Operation() {
+            @Override
+            public void run(int iteration) {
+                mResolver.bulkInsert(PetEntry.CONTENT_URI,
+                        PetTestData.pets(mRandom.nextInt(mRowCount), BULK_INSERT_SIZE));
+            }
+        });
+        measure("applyBatch.pets/#", new Operation() {
+            @Override
+            public void run(int iteration) throws Exception {
+                ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    operations.add(ContentProviderOperation
+                            .newUpdate(ContentUris.withAppendedId(PetEntry.CONTENT_URI,
+                                    randomId()))
+                            .withValue(PetEntry.COLUMN_PET_WEIGHT, 1 + mRandom.nextInt(60))
+                            .build());
+                }
+                mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+            }
+        });
+        measure("insert.shelters/#/pets", new Operation() {
+            @Override
+            public void run(int iteration) {
+                mResolver.insert(PetShelterEntry.buildPetsUri(randomShelter()),
+                        PetTestData.pet(mRandom.nextInt(mRowCount)));
+            }
+        });
+    }
+
+    /**
+     * Run the given operation a tenth of the iterations to warm it up, then time it for every
+     * iteration and add its latencies to the results under the given key.
+     */
+    private void measure(String key, Operation operation) throws Exception {
+        int warmUp = mIterations / 10;
+        for (int i = 0; i < warmUp; i++) {
+            operation.run(mIterations + i);
+        }
+        long[] nanos = new long[mIterations];
+        for (int i = 0; i < mIterations; i++) {
+            long start = System.nanoTime();
+            operation.run(i);
+            nanos[i] = System.nanoTime() - start;
+        }
+        mResults.put(key, nanos);
+    }
+
+    /**
+     * Query the given URI and read every row of the result.
+     */
+    private void read(Uri uri, String selection, String[] selectionArgs) {
+        Cursor cursor = mResolver.query(uri, null, selection, selectionArgs, null);
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getString(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Returns the ID of one of the seeded pets */
+    private long randomId() {
+        return 1 + mRandom.nextInt(mRowCount);
+    }
+
+    /** Returns the ID of one of the seeded shelters */
+    private int randomShelter() {
+        return 1 + mRandom.nextInt(SHELTER_COUNT);
+    }
+
+    private static String join(List<String> lines) {
+        StringBuilder joined = new StringBuilder();
+        for (String line : lines) {
+            joined.append(line).append('\n');
+        }
+        return joined.toString();
+    }
+}
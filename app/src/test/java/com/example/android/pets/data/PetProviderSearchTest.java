@@ -0,0 +1,74 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that searching {@link PetProvider} for text without any words finds no pets, instead
+ * of handing SQLite an empty full-text query.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetProviderSearchTest {
+
+    /** Number of pets seeded */
+    private static final int ROW_COUNT = 100;
+
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(PetProvider.class,
+                PetContract.CONTENT_AUTHORITY);
+        mResolver = RuntimeEnvironment.getApplication().getContentResolver();
+        PetTestData.seed(mResolver, 0, ROW_COUNT);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void textWithoutWordsFindsNoPets() {
+        assertEquals(0, countMatches(" "));
+        assertEquals(0, countMatches("\""));
+        assertEquals(0, countMatches("\" \"\""));
+    }
+
+    @Test
+    public void exactNameComesFirst() {
+        String name = PetTestData.name(ROW_COUNT - 1);
+        Cursor cursor = mResolver.query(PetEntry.buildSearchUri(name),
+                new String[] { PetEntry.COLUMN_PET_NAME }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(name, cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countMatches(String text) {
+        Cursor cursor = mResolver.query(PetEntry.buildSearchUri(text),
+                new String[] { PetEntry._ID }, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
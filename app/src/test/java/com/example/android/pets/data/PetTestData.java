@@ -0,0 +1,96 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.robolectric.Shadows;
+import org.robolectric.shadows.ShadowContentResolver;
+
+/**
+ * Made-up pets for the tests. The same index always gives the same pet, so runs seed the same
+ * data: names built from syllables, so that they share prefixes the way real names do, one of
+ * a few dozen breeds (or none), and every gender and a spread of weights.
+ */
+public final class PetTestData {
+
+    /** Syllables the names are built from */
+    private static final String[] SYLLABLES = {
+            "ba", "be", "bo", "ca", "da", "di", "fe", "fi", "ga", "ja", "ki", "la", "lo", "lu",
+            "ma", "mi", "mo", "na", "ni", "pe", "po", "ra", "ri", "ro", "sa", "si", "ta", "to",
+            "va", "zo" };
+
+    /** Breeds of the pets, or null for no breed */
+    private static final String[] BREEDS = {
+            null, "Tabby", "Siamese", "Persian", "Maine Coon", "Ragdoll", "Bengal", "Sphynx",
+            "Labrador", "Beagle", "Poodle", "Boxer", "Dachshund", "Bulldog", "Husky", "Terrier",
+            "Collie", "Greyhound", "Spaniel", "Pug", "Chihuahua", "Shih Tzu", "Mastiff",
+            "Rottweiler", "Whippet", "Corgi", "Samoyed", "Akita", "Shiba Inu", "Vizsla",
+            "Rabbit", "Guinea Pig", "Hamster", "Ferret", "Parrot", "Canary", "Tortoise" };
+
+    /** Number of pets written per {@link ContentResolver#bulkInsert} by {@link #seed} */
+    private static final int SEED_BATCH_SIZE = 1000;
+
+    private PetTestData() {}
+
+    /**
+     * Returns the name of the pet with the given index.
+     */
+    public static String name(int index) {
+        StringBuilder name = new StringBuilder();
+        int rest = index;
+        do {
+            name.append(SYLLABLES[rest % SYLLABLES.length]);
+            rest /= SYLLABLES.length;
+        } while (rest != 0);
+        name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+        return name.toString();
+    }
+
+    /**
+     * Returns the values of the pet with the given index.
+     */
+    public static ContentValues pet(int index) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name(index));
+        values.put(PetEntry.COLUMN_PET_BREED, BREEDS[(index * 7) % BREEDS.length]);
+        values.put(PetEntry.COLUMN_PET_GENDER, index % 3);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, (index * 13) % 60 + 1);
+        return values;
+    }
+
+    /**
+     * Returns the values of the given number of pets, from the given index on.
+     */
+    public static ContentValues[] pets(int start, int count) {
+        ContentValues[] pets = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            pets[i] = pet(start + i);
+        }
+        return pets;
+    }
+
+    /**
+     * Insert the given number of pets into {@link PetEntry#CONTENT_URI} through the given
+     * resolver, in batches, from the given index on.
+     */
+    public static void seed(ContentResolver resolver, int start, int count) {
+        for (int i = 0; i < count; i += SEED_BATCH_SIZE) {
+            resolver.bulkInsert(PetEntry.CONTENT_URI,
+                    pets(start + i, Math.min(SEED_BATCH_SIZE, count - i)));
+            forgetStatements(resolver);
+        }
+    }
+
+    /**
+     * Drop the inserts Robolectric has recorded for the given resolver. It keeps the values
+     * of every insert made through a resolver, which adds up to most of the heap after a few
+     * hundred thousand pets.
+     */
+    public static void forgetStatements(ContentResolver resolver) {
+        ShadowContentResolver shadow = Shadows.shadowOf(resolver);
+        shadow.getStatements().clear();
+        shadow.getInsertStatements().clear();
+    }
+}
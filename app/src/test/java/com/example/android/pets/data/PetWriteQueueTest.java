@@ -0,0 +1,139 @@
+package com.example.android.pets.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link PetWriteQueue} commits every queued write before it shuts down, refuses
+ * writes after that, and only counts the batches it committed.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetWriteQueueTest {
+
+    /** Number of writers submitting at the same time */
+    private static final int WRITER_COUNT = 8;
+
+    /** Number of pets each writer inserts */
+    private static final int WRITES_PER_WRITER = 50;
+
+    private PetDbHelper mDbHelper;
+    private PetWriteQueue mQueue;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new PetDbHelper(RuntimeEnvironment.getApplication());
+        mQueue = new PetWriteQueue(mDbHelper, new PetWriteQueue.BatchListener() {
+            @Override
+            public void onBatchStarted() {
+            }
+
+            @Override
+            public void onBatchFinished(boolean committed) {
+                mDbHelper.onTransactionEnded(committed);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mQueue.shutdown();
+        mDbHelper.close();
+    }
+
+    @Test
+    public void shutdownCommitsQueuedWritesThenRefusesMore() throws Exception {
+        ExecutorService writers = Executors.newFixedThreadPool(WRITER_COUNT);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int w = 0; w < WRITER_COUNT; w++) {
+            final int start = w * WRITES_PER_WRITER;
+            results.add(writers.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    for (int i = 0; i < WRITES_PER_WRITER; i++) {
+                        insert(start + i);
+                    }
+                    return WRITES_PER_WRITER;
+                }
+            }));
+        }
+        for (Future<Integer> result : results) {
+            assertEquals(WRITES_PER_WRITER, (int) result.get(10, TimeUnit.SECONDS));
+        }
+        writers.shutdown();
+
+        mQueue.shutdown();
+        assertEquals(WRITER_COUNT * WRITES_PER_WRITER, countPets());
+        assertEquals(WRITER_COUNT * WRITES_PER_WRITER, mQueue.getWriteCount());
+        try {
+            insert(0);
+            fail("Write accepted after shutdown");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void failedBatchIsNotCounted() {
+        insert(0);
+        assertEquals(1, mQueue.getBatchCount());
+
+        // A write that makes the commit fail, by ending the transaction early
+        try {
+            mQueue.submit(new PetWriteQueue.Write<Void>() {
+                @Override
+                public Void run() {
+                    SQLiteDatabase db = mDbHelper.getWritableDatabase();
+                    db.insert(PetEntry.TABLE_NAME, null, mDbHelper.toStoredValues(
+                            PetTestData.pet(1)));
+                    // Yield the transaction so that the batch's own commit throws
+                    db.endTransaction();
+                    return null;
+                }
+            });
+            fail("Write of a failed batch succeeded");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        assertEquals(1, mQueue.getBatchCount());
+        assertEquals(1, mQueue.getWriteCount());
+        assertFalse(mQueue.isWriterThread());
+        assertTrue(countPets() >= 1);
+    }
+
+    private void insert(final int index) {
+        mQueue.submit(new PetWriteQueue.Write<Long>() {
+            @Override
+            public Long run() {
+                return mDbHelper.getWritableDatabase().insert(PetEntry.TABLE_NAME, null,
+                        mDbHelper.toStoredValues(PetTestData.pet(index)));
+            }
+        });
+    }
+
+    private int countPets() {
+        return (int) DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(),
+                PetEntry.TABLE_NAME);
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.android.pets.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a write through {@link SqlitePetStore} waiting for the database, outside of a
+ * transaction, doesn't keep the thread that holds the transaction from writing through the
+ * store too.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SqlitePetStoreConcurrencyTest {
+
+    /** How long each thread gets to finish */
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private PetDbHelper mDbHelper;
+    private SqlitePetStore mStore;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new PetDbHelper(RuntimeEnvironment.getApplication());
+        mStore = new SqlitePetStore(mDbHelper);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void transactionWritesWhileAnotherWriterWaits() throws Exception {
+        final CountDownLatch inTransaction = new CountDownLatch(1);
+        final CountDownLatch inserting = new CountDownLatch(1);
+        final long[] waitingId = { -1 };
+        final Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    inTransaction.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                inserting.countDown();
+                // Without a breed to intern, this goes straight to the insert statement, which
+                // waits for the transaction of the writer to end
+                waitingId[0] = mStore.insert("Waiting", null, 1, 7);
+            }
+        }, "waiting writer");
+        waiter.start();
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase db = mDbHelper.getWritableDatabase();
+                boolean committed = false;
+                db.beginTransaction();
+                try {
+                    mStore.insert("First", "Beagle", 1, 5);
+                    inTransaction.countDown();
+                    waitUntilBlocked(inserting, waiter);
+                    mStore.insert("Second", "Beagle", 2, 6);
+                    db.setTransactionSuccessful();
+                    committed = true;
+                } finally {
+                    db.endTransaction();
+                    mDbHelper.onTransactionEnded(committed);
+                }
+            }
+        }, "transaction writer");
+        writer.start();
+        writer.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        assertFalse("Transaction writer is blocked", writer.isAlive());
+        waiter.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        assertFalse("Waiting writer is blocked", waiter.isAlive());
+        assertTrue(waitingId[0] > 0);
+
+        assertEquals(3, mStore.size());
+        Pet pet = mStore.get(1);
+        assertNotNull(pet);
+        assertEquals("First", pet.name);
+        assertEquals("Beagle", pet.breed);
+    }
+
+    /**
+     * Wait until the given thread has counted down the given latch, then until it is blocked.
+     */
+    private static void waitUntilBlocked(CountDownLatch started, Thread thread) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        try {
+            started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        while (System.nanoTime() < deadline && thread.getState() == Thread.State.RUNNABLE) {
+            Thread.yield();
+        }
+    }
+}
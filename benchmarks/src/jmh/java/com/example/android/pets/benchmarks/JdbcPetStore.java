@@ -0,0 +1,202 @@
+package com.example.android.pets.benchmarks;
+
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetStore;
+import com.example.android.pets.data.PetValidation;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link PetStore} over a database created by {@link ShelterDatabase}, making the same
+ * statements as SqlitePetStore does on the device: single-row writes through statements
+ * compiled once, with the breed interned into the breeds table the way PetDbHelper.internBreed
+ * does, and reads through the pets view, scans as keyset queries on the ID.
+ *
+ * Every write commits on its own unless the caller turns off auto-commit on the connection, as
+ * the provider's single-row writes do.
+ */
+final class JdbcPetStore implements PetStore {
+
+    /** IDs of the breeds interned so far */
+    private final Map<String, Long> mBreedIds = new HashMap<>();
+
+    private final PreparedStatement mInsert;
+    private final PreparedStatement mUpdateById;
+    private final PreparedStatement mDeleteById;
+    private final PreparedStatement mInsertBreed;
+    private final PreparedStatement mSelectBreedId;
+    private final PreparedStatement mSelectById;
+    private final PreparedStatement mScan;
+    private final PreparedStatement mScanGender;
+    private final PreparedStatement mCount;
+
+    JdbcPetStore(Connection connection) throws SQLException {
+        mInsert = connection.prepareStatement(
+                "INSERT INTO pets (name, breed_id, gender, weight) VALUES (?, ?, ?, ?)");
+        mUpdateById = connection.prepareStatement(
+                "UPDATE pets SET name = ?, breed_id = ?, gender = ?, weight = ? WHERE _id = ?");
+        mDeleteById = connection.prepareStatement("DELETE FROM pets WHERE _id = ?");
+        mInsertBreed = connection.prepareStatement(
+                "INSERT OR IGNORE INTO pet_breeds (breed) VALUES (?)");
+        mSelectBreedId = connection.prepareStatement(
+                "SELECT breed_id FROM pet_breeds WHERE breed = ?");
+        mSelectById = connection.prepareStatement(
+                "SELECT _id, name, breed, gender, weight FROM pets_with_breeds WHERE _id = ?");
+        mScan = connection.prepareStatement("SELECT _id, name, breed, gender, weight"
+                + " FROM pets_with_breeds WHERE _id > ? AND weight BETWEEN ? AND ?"
+                + " ORDER BY _id LIMIT ?");
+        mScanGender = connection.prepareStatement("SELECT _id, name, breed, gender, weight"
+                + " FROM pets_with_breeds WHERE _id > ? AND weight BETWEEN ? AND ?"
+                + " AND gender = ? ORDER BY _id LIMIT ?");
+        mCount = connection.prepareStatement("SELECT COUNT(*) FROM pets");
+    }
+
+    @Override
+    public long insert(String name, String breed, int gender, int weight) {
+        PetValidation.checkNewPet(name, gender, weight);
+        try {
+            bindPet(mInsert, name, breed, gender, weight);
+            mInsert.executeUpdate();
+            return lastInsertId();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Couldn't insert " + name, e);
+        }
+    }
+
+    @Override
+    public boolean update(long id, String name, String breed, int gender, int weight) {
+        PetValidation.checkNewPet(name, gender, weight);
+        try {
+            bindPet(mUpdateById, name, breed, gender, weight);
+            mUpdateById.setLong(5, id);
+            return mUpdateById.executeUpdate() != 0;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Couldn't update pet " + id, e);
+        }
+    }
+
+    @Override
+    public boolean delete(long id) {
+        try {
+            mDeleteById.setLong(1, id);
+            return mDeleteById.executeUpdate() != 0;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Couldn't delete pet " + id, e);
+        }
+    }
+
+    @Override
+    public Pet get(long id) {
+        try {
+            mSelectById.setLong(1, id);
+            ResultSet result = mSelectById.executeQuery();
+            try {
+                if (!result.next()) {
+                    return null;
+                }
+                return new Pet(result.getLong(1), result.getString(2), result.getString(3),
+                        result.getInt(4), result.getInt(5));
+            } finally {
+                result.close();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Couldn't read pet " + id, e);
+        }
+    }
+
+    @Override
+    public int scan(int gender, int minWeight, int maxWeight, long afterId, int limit,
+                    Visitor visitor) {
+        try {
+            PreparedStatement statement = gender == ANY_GENDER ? mScan : mScanGender;
+            statement.setLong(1, afterId);
+            statement.setInt(2, minWeight);
+            statement.setInt(3, maxWeight);
+            if (gender != ANY_GENDER) {
+                statement.setInt(4, gender);
+            }
+            statement.setInt(gender == ANY_GENDER ? 4 : 5, limit);
+            ResultSet result = statement.executeQuery();
+            try {
+                int visited = 0;
+                while (result.next()) {
+                    visitor.visit(result.getLong(1), result.getString(2), result.getString(3),
+                            result.getInt(4), result.getInt(5));
+                    visited++;
+                }
+                return visited;
+            } finally {
+                result.close();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Couldn't scan the pets", e);
+        }
+    }
+
+    @Override
+    public int size() {
+        try {
+            ResultSet result = mCount.executeQuery();
+            try {
+                return result.next() ? result.getInt(1) : 0;
+            } finally {
+                result.close();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Couldn't count the pets", e);
+        }
+    }
+
+    /**
+     * Bind the values of a pet to the first four parameters of the given statement, with the
+     * breed as its ID.
+     */
+    private void bindPet(PreparedStatement statement, String name, String breed, int gender,
+                         int weight) throws SQLException {
+        statement.setString(1, name);
+        if (breed == null) {
+            statement.setNull(2, Types.INTEGER);
+        } else {
+            statement.setLong(2, internBreed(breed));
+        }
+        statement.setInt(3, gender);
+        statement.setInt(4, weight);
+    }
+
+    /**
+     * Returns the ID of the given breed, adding it to the breeds table if it is new.
+     */
+    private long internBreed(String breed) throws SQLException {
+        Long id = mBreedIds.get(breed);
+        if (id != null) {
+            return id;
+        }
+        mInsertBreed.setString(1, breed);
+        mInsertBreed.executeUpdate();
+        mSelectBreedId.setString(1, breed);
+        ResultSet result = mSelectBreedId.executeQuery();
+        try {
+            result.next();
+            id = result.getLong(1);
+        } finally {
+            result.close();
+        }
+        mBreedIds.put(breed, id);
+        return id;
+    }
+
+    private long lastInsertId() throws SQLException {
+        ResultSet result = mInsert.getGeneratedKeys();
+        try {
+            return result.next() ? result.getLong(1) : -1;
+        } finally {
+            result.close();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.android.pets.benchmarks;
+
+import com.example.android.pets.data.PetStore;
+
+/**
+ * Generates the same pets for every benchmark run, so results can be compared between runs.
+ */
+final class PetData {
+
+    private static final String[] BREEDS = { "Terrier", "Tabby", "Labrador", "Persian", null };
+
+    private PetData() {}
+
+    static String name(int i) {
+        return "Pet " + i;
+    }
+
+    static String breed(int i) {
+        return BREEDS[i % BREEDS.length];
+    }
+
+    static int gender(int i) {
+        return i % 3;
+    }
+
+    static int weight(int i) {
+        return (i * 7) % 40;
+    }
+
+    /** Insert the given number of pets into the store, with IDs 1 to count. */
+    static void fill(PetStore store, int count) {
+        for (int i = 0; i < count; i++) {
+            store.insert(name(i), breed(i), gender(i), weight(i));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.android.pets.benchmarks;
+
+import com.example.android.pets.data.PetDbProfile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scan and point lookup throughput of a pets database under each {@link PetDbProfile}.
+ *
+ * The database is created by {@link ShelterDatabase}, with the settings of the profile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PetDbProfileBenchmark {
+
+    /** Name of the profile applied to the database */
+    @Param({ "stock", "kiosk", "low_memory" })
+    public String profile;
+
+    /** Number of pets in the database */
+    @Param({ "100000" })
+    public int size;
+
+    private File mFile;
+    private Connection mConnection;
+    private PreparedStatement mById;
+    private PreparedStatement mAll;
+    private PreparedStatement mByGenderAndWeight;
+    private Random mRandom;
+
+    @Setup
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("shelter", ".db");
+        mConnection = ShelterDatabase.create(mFile, PetDbProfile.forName(profile));
+        mConnection.setAutoCommit(false);
+        PetData.fill(new JdbcPetStore(mConnection), size);
+        mConnection.commit();
+        mConnection.setAutoCommit(true);
+
+        mById = mConnection.prepareStatement("SELECT _id, name, breed, gender, weight FROM"
+                + " pets_with_breeds WHERE _id = ?");
+        mAll = mConnection.prepareStatement("SELECT _id, name, breed, gender, weight FROM"
+                + " pets_with_breeds");
+        mByGenderAndWeight = mConnection.prepareStatement("SELECT _id, name, breed, gender,"
+                + " weight FROM pets_with_breeds WHERE gender = ? AND weight BETWEEN ? AND ?");
+        mRandom = new Random(42);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        ShelterDatabase.delete(mConnection, mFile);
+    }
+
+    /** Read a random pet by its ID. */
+    @Benchmark
+    public long pointLookup() throws SQLException {
+        mById.setLong(1, 1 + mRandom.nextInt(size));
+        return sumIds(mById.executeQuery());
+    }
+
+    /** Read every pet. */
+    @Benchmark
+    public long fullScan() throws SQLException {
+        return sumIds(mAll.executeQuery());
+    }
+
+    /** Read the male pets within a weight range, through the gender and weight index. */
+    @Benchmark
+    public long indexedRangeScan() throws SQLException {
+        mByGenderAndWeight.setInt(1, 1);
+        mByGenderAndWeight.setInt(2, 10);
+        mByGenderAndWeight.setInt(3, 20);
+        return sumIds(mByGenderAndWeight.executeQuery());
+    }
+
+    /**
+     * Read every row of the given result, closing it, and return the sum of the IDs so that
+     * the reads can't be optimized away.
+     */
+    private static long sumIds(ResultSet result) throws SQLException {
+        long sum = 0;
+        try {
+            while (result.next()) {
+                sum += result.getLong(1);
+                result.getString(2);
+                result.getString(3);
+            }
+        } finally {
+            result.close();
+        }
+        return sum;
+    }
+}
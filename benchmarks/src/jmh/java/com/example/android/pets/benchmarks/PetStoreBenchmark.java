@@ -0,0 +1,119 @@
+package com.example.android.pets.benchmarks;
+
+import com.example.android.pets.data.InMemoryPetStore;
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetDbProfile;
+import com.example.android.pets.data.PetStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costs of the {@link PetStore} operations on a store already holding {@link #size} pets, in
+ * memory or in a shelter database with the stock settings (see {@link JdbcPetStore}). Writes
+ * to the database commit one at a time, like the editor's writes through the provider.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PetStoreBenchmark {
+
+    /** Number of pets in the store */
+    @Param({ "1000", "100000", "1000000" })
+    public int size;
+
+    /** Where the pets are stored: "memory" or "sqlite" */
+    @Param({ "memory", "sqlite" })
+    public String store;
+
+    private PetStore mStore;
+    private Random mRandom;
+
+    /** Database file and connection of the "sqlite" store */
+    private File mFile;
+    private Connection mConnection;
+
+    @Setup
+    public void setUp() throws Exception {
+        if (store.equals("sqlite")) {
+            mFile = File.createTempFile("shelter", ".db");
+            mConnection = ShelterDatabase.create(mFile, PetDbProfile.STOCK);
+            mStore = new JdbcPetStore(mConnection);
+
+            // Fill the database in a single transaction, as an import does
+            mConnection.setAutoCommit(false);
+            PetData.fill(mStore, size);
+            mConnection.commit();
+            mConnection.setAutoCommit(true);
+        } else {
+            mStore = new InMemoryPetStore();
+            PetData.fill(mStore, size);
+        }
+        mRandom = new Random(42);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        if (mConnection != null) {
+            ShelterDatabase.delete(mConnection, mFile);
+        }
+    }
+
+    /** Insert a pet, then delete it again so the store keeps its size. */
+    @Benchmark
+    public boolean insertAndDelete() {
+        long id = mStore.insert("Toto", "Terrier", 1, 7);
+        return mStore.delete(id);
+    }
+
+    /** Change every value of a random pet. */
+    @Benchmark
+    public boolean update() {
+        long id = 1 + mRandom.nextInt(size);
+        return mStore.update(id, "Toto", "Terrier", 1, 7);
+    }
+
+    /** Read a random pet by its ID. */
+    @Benchmark
+    public Pet queryById() {
+        return mStore.get(1 + mRandom.nextInt(size));
+    }
+
+    /** Visit every pet. */
+    @Benchmark
+    public int fullScan(final Blackhole blackhole) {
+        return mStore.scan(PetStore.ANY_GENDER, 0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE,
+                new PetStore.Visitor() {
+                    @Override
+                    public void visit(long id, String name, String breed, int gender,
+                                      int weight) {
+                        blackhole.consume(id);
+                    }
+                });
+    }
+
+    /** Visit the first page of male pets within a weight range. */
+    @Benchmark
+    public int filteredScan(final Blackhole blackhole) {
+        return mStore.scan(1, 10, 20, 0, 50, new PetStore.Visitor() {
+            @Override
+            public void visit(long id, String name, String breed, int gender, int weight) {
+                blackhole.consume(id);
+            }
+        });
+    }
+}
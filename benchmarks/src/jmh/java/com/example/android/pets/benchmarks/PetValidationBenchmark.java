@@ -0,0 +1,62 @@
+package com.example.android.pets.benchmarks;
+
+import com.example.android.pets.data.PetValidation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of checking {@link #size} pets against the insert and update rules, the same rules
+ * that PetProvider applies (including the gender check of PetEntry.isValidGender).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PetValidationBenchmark {
+
+    /** Number of pets checked per operation */
+    @Param({ "1000", "100000", "1000000" })
+    public int size;
+
+    private String[] mNames;
+    private Integer[] mGenders;
+    private Integer[] mWeights;
+
+    @Setup
+    public void setUp() {
+        mNames = new String[size];
+        mGenders = new Integer[size];
+        mWeights = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            mNames[i] = PetData.name(i);
+            mGenders[i] = PetData.gender(i);
+            mWeights[i] = PetData.weight(i);
+        }
+    }
+
+    /** Check every pet with the rules for a new pet. */
+    @Benchmark
+    public int validateInsert() {
+        for (int i = 0; i < size; i++) {
+            PetValidation.checkNewPet(mNames[i], mGenders[i], mWeights[i]);
+        }
+        return size;
+    }
+
+    /** Check the gender of every pet, as an update that only changes the gender would. */
+    @Benchmark
+    public int validateGenderUpdate() {
+        for (int i = 0; i < size; i++) {
+            PetValidation.checkGender(mGenders[i]);
+        }
+        return size;
+    }
+}
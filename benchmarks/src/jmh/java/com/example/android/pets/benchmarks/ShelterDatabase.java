@@ -0,0 +1,148 @@
+package com.example.android.pets.benchmarks;
+
+import com.example.android.pets.data.PetDbProfile;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Creates shelter databases for the benchmarks through JDBC, since the Android SQLite classes
+ * can't run on a JVM.
+ *
+ * The schema is the one PetDbHelper ends up with at database version 7, written out as the
+ * statements its migrations run: the breeds table, the pets table referring to its breed by
+ * ID, the indexes, the pets view, the full-text index with its triggers, the statistics and
+ * breed counts with theirs, and the change log. The triggers make up most of the cost of a
+ * write, so they are all there. The settings are applied in the same order as PetDbHelper
+ * does: the page size while the file is still empty, then write-ahead logging, then the
+ * settings of the connection.
+ */
+final class ShelterDatabase {
+
+    /** Statements creating the schema of database version 7 */
+    private static final String[] SCHEMA = {
+            "CREATE TABLE pet_breeds (breed_id INTEGER PRIMARY KEY, breed TEXT NOT NULL UNIQUE)",
+            "CREATE TABLE pets (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, "
+                    + "breed_id INTEGER REFERENCES pet_breeds (breed_id), "
+                    + "gender INTEGER NOT NULL, weight INTEGER NOT NULL DEFAULT 0)",
+            "CREATE INDEX pets_name_idx ON pets (name COLLATE NOCASE)",
+            "CREATE INDEX pets_gender_weight_idx ON pets (gender, weight)",
+            "CREATE INDEX pets_breed_idx ON pets (breed_id)",
+            "CREATE INDEX pets_weight_id_idx ON pets (weight, _id)",
+            "CREATE INDEX pets_gender_id_idx ON pets (gender, _id)",
+            "CREATE VIEW pets_with_breeds AS SELECT _id, name, breed, gender, weight "
+                    + "FROM pets LEFT JOIN pet_breeds USING (breed_id)",
+
+            // Full-text index of the names and breeds, reading its text through a view
+            "CREATE VIEW pets_fts_content AS SELECT _id AS rowid, name, breed "
+                    + "FROM pets_with_breeds",
+            "CREATE VIRTUAL TABLE pets_fts USING fts4(content=\"pets_fts_content\", name, "
+                    + "breed)",
+            "CREATE TRIGGER pets_fts_ai AFTER INSERT ON pets BEGIN "
+                    + "INSERT INTO pets_fts (docid, name, breed) VALUES (new._id, new.name, "
+                    + "(SELECT breed FROM pet_breeds WHERE breed_id = new.breed_id)); END",
+            "CREATE TRIGGER pets_fts_bu BEFORE UPDATE ON pets BEGIN "
+                    + "DELETE FROM pets_fts WHERE docid = old._id; END",
+            "CREATE TRIGGER pets_fts_au AFTER UPDATE ON pets BEGIN "
+                    + "INSERT INTO pets_fts (docid, name, breed) VALUES (new._id, new.name, "
+                    + "(SELECT breed FROM pet_breeds WHERE breed_id = new.breed_id)); END",
+            "CREATE TRIGGER pets_fts_bd BEFORE DELETE ON pets BEGIN "
+                    + "DELETE FROM pets_fts WHERE docid = old._id; END",
+
+            // Statistics, and the pet count of each breed
+            "CREATE TABLE pet_stats (pet_count INTEGER NOT NULL DEFAULT 0, "
+                    + "unknown_count INTEGER NOT NULL DEFAULT 0, "
+                    + "male_count INTEGER NOT NULL DEFAULT 0, "
+                    + "female_count INTEGER NOT NULL DEFAULT 0, "
+                    + "total_weight INTEGER NOT NULL DEFAULT 0, "
+                    + "breed_count INTEGER NOT NULL DEFAULT 0)",
+            "INSERT INTO pet_stats DEFAULT VALUES",
+            "CREATE TABLE pet_breed_counts (breed_id INTEGER PRIMARY KEY, "
+                    + "pet_count INTEGER NOT NULL)",
+            "CREATE TRIGGER pet_breed_counts_ai AFTER INSERT ON pet_breed_counts BEGIN "
+                    + "UPDATE pet_stats SET breed_count = breed_count + 1; END",
+            "CREATE TRIGGER pet_breed_counts_ad AFTER DELETE ON pet_breed_counts BEGIN "
+                    + "UPDATE pet_stats SET breed_count = breed_count - 1; END",
+            "CREATE TRIGGER pet_stats_ai AFTER INSERT ON pets BEGIN "
+                    + statsChange("new", "+") + "END",
+            "CREATE TRIGGER pet_stats_au AFTER UPDATE ON pets BEGIN "
+                    + statsChange("old", "-") + statsChange("new", "+") + "END",
+            "CREATE TRIGGER pet_stats_ad AFTER DELETE ON pets BEGIN "
+                    + statsChange("old", "-") + "END",
+
+            // Change log, compacting itself every 1000 entries down to the last 10000
+            "CREATE TABLE pet_changes (sequence INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "pet_id INTEGER NOT NULL, operation INTEGER NOT NULL)",
+            "CREATE TRIGGER pet_changes_compact AFTER INSERT ON pet_changes "
+                    + "WHEN new.sequence % 1000 = 0 BEGIN "
+                    + "DELETE FROM pet_changes WHERE sequence <= new.sequence - 10000; END",
+            "CREATE TRIGGER pet_changes_ai AFTER INSERT ON pets BEGIN "
+                    + "INSERT INTO pet_changes (pet_id, operation) VALUES (new._id, 1); END",
+            "CREATE TRIGGER pet_changes_au AFTER UPDATE ON pets BEGIN "
+                    + "INSERT INTO pet_changes (pet_id, operation) VALUES (new._id, 2); END",
+            "CREATE TRIGGER pet_changes_ad AFTER DELETE ON pets BEGIN "
+                    + "INSERT INTO pet_changes (pet_id, operation) VALUES (old._id, 3); END" };
+
+    private ShelterDatabase() {}
+
+    /**
+     * Returns the trigger statements that add the given row ("new") to the statistics or
+     * remove it ("old") from them, depending on the given sign.
+     */
+    private static String statsChange(String row, String sign) {
+        String statements = "UPDATE pet_stats SET pet_count = pet_count " + sign + " 1, "
+                + "unknown_count = unknown_count " + sign + " (" + row + ".gender = 0), "
+                + "male_count = male_count " + sign + " (" + row + ".gender = 1), "
+                + "female_count = female_count " + sign + " (" + row + ".gender = 2), "
+                + "total_weight = total_weight " + sign + " " + row + ".weight; ";
+        if (sign.equals("+")) {
+            statements += "INSERT OR IGNORE INTO pet_breed_counts SELECT " + row + ".breed_id, 0"
+                    + " WHERE " + row + ".breed_id IS NOT NULL; ";
+        }
+        statements += "UPDATE pet_breed_counts SET pet_count = pet_count " + sign + " 1"
+                + " WHERE breed_id = " + row + ".breed_id; ";
+        if (sign.equals("-")) {
+            statements += "DELETE FROM pet_breed_counts WHERE breed_id = " + row + ".breed_id"
+                    + " AND pet_count = 0; ";
+        }
+        return statements;
+    }
+
+    /**
+     * Create a shelter database in the given file, which must be empty, with the settings of
+     * the given profile, and return a connection to it.
+     */
+    static Connection create(File file, PetDbProfile profile) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        Statement statement = connection.createStatement();
+        try {
+            if (profile.getPageSize() != null) {
+                statement.execute("PRAGMA page_size=" + profile.getPageSize());
+            }
+            statement.execute("PRAGMA journal_mode=WAL");
+            for (String pragma : profile.getConnectionPragmas()) {
+                statement.execute(pragma);
+            }
+            for (String sql : SCHEMA) {
+                statement.execute(sql);
+            }
+        } finally {
+            statement.close();
+        }
+        return connection;
+    }
+
+    /**
+     * Close the given connection, and delete the database file along with its write-ahead
+     * log and shared memory files.
+     */
+    static void delete(Connection connection, File file) throws SQLException {
+        connection.close();
+        new File(file.getPath() + "-wal").delete();
+        new File(file.getPath() + "-shm").delete();
+        file.delete();
+    }
+}
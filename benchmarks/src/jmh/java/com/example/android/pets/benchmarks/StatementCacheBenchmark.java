@@ -0,0 +1,206 @@
+package com.example.android.pets.benchmarks;
+
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetDbProfile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the single-row writes and reads by ID in a shelter database of {@link #size} pets,
+ * before and after the provider compiled their statements once (see PetStatements).
+ *
+ * "compiled" runs them through {@link JdbcPetStore}, which binds the values straight into
+ * statements prepared once. "rebuilt" runs them the way the generic SQLiteDatabase insert,
+ * update, delete and query methods do: the SQL is built from a map of column values for every
+ * call, with the ID passed as a string argument, then prepared, run and closed again. Every
+ * write commits on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StatementCacheBenchmark {
+
+    /** Number of pets in the database */
+    @Param({ "100000" })
+    public int size;
+
+    /** How the statements are made: "compiled" or "rebuilt" */
+    @Param({ "compiled", "rebuilt" })
+    public String statements;
+
+    private File mFile;
+    private Connection mConnection;
+    private JdbcPetStore mStore;
+    private Random mRandom;
+
+    /** ID of the breed the "rebuilt" statements write */
+    private long mBreedId;
+
+    @Setup
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("shelter", ".db");
+        mConnection = ShelterDatabase.create(mFile, PetDbProfile.STOCK);
+        mStore = new JdbcPetStore(mConnection);
+
+        // Fill the database in a single transaction, as an import does
+        mConnection.setAutoCommit(false);
+        PetData.fill(mStore, size);
+        mConnection.commit();
+        mConnection.setAutoCommit(true);
+
+        PreparedStatement statement = mConnection.prepareStatement(
+                "SELECT breed_id FROM pet_breeds WHERE breed = ?");
+        try {
+            statement.setString(1, "Terrier");
+            ResultSet result = statement.executeQuery();
+            result.next();
+            mBreedId = result.getLong(1);
+        } finally {
+            statement.close();
+        }
+        mRandom = new Random(42);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        ShelterDatabase.delete(mConnection, mFile);
+    }
+
+    /** Insert a pet, then delete it by its ID so the database keeps its size. */
+    @Benchmark
+    public boolean insertAndDelete() throws SQLException {
+        if (statements.equals("compiled")) {
+            return mStore.delete(mStore.insert("Toto", "Terrier", 1, 7));
+        }
+        long id = insert(petValues());
+        return delete("_id=?", new String[] { String.valueOf(id) }) != 0;
+    }
+
+    /** Change every value of a random pet by its ID. */
+    @Benchmark
+    public boolean updateById() throws SQLException {
+        long id = 1 + mRandom.nextInt(size);
+        if (statements.equals("compiled")) {
+            return mStore.update(id, "Toto", "Terrier", 1, 7);
+        }
+        return update(petValues(), "_id=?", new String[] { String.valueOf(id) }) != 0;
+    }
+
+    /** Read a random pet by its ID. */
+    @Benchmark
+    public Pet selectById() throws SQLException {
+        long id = 1 + mRandom.nextInt(size);
+        if (statements.equals("compiled")) {
+            return mStore.get(id);
+        }
+        return query("_id=?", new String[] { String.valueOf(id) });
+    }
+
+    /**
+     * Returns the values written by the "rebuilt" statements, as the provider puts them in its
+     * ContentValues.
+     */
+    private Map<String, Object> petValues() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("name", "Toto");
+        values.put("breed_id", mBreedId);
+        values.put("gender", 1);
+        values.put("weight", 7);
+        return values;
+    }
+
+    /** Insert a pet as SQLiteDatabase.insert does, and return its ID. */
+    private long insert(Map<String, Object> values) throws SQLException {
+        StringBuilder sql = new StringBuilder("INSERT INTO pets(");
+        StringBuilder parameters = new StringBuilder(") VALUES (");
+        Object[] args = new Object[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            sql.append(i > 0 ? "," : "").append(value.getKey());
+            parameters.append(i > 0 ? ",?" : "?");
+            args[i++] = value.getValue();
+        }
+        sql.append(parameters).append(')');
+        PreparedStatement statement = mConnection.prepareStatement(sql.toString());
+        try {
+            bind(statement, args);
+            statement.executeUpdate();
+            ResultSet keys = statement.getGeneratedKeys();
+            return keys.next() ? keys.getLong(1) : -1;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /** Update pets as SQLiteDatabase.update does, and return the number changed. */
+    private int update(Map<String, Object> values, String whereClause, String[] whereArgs)
+            throws SQLException {
+        StringBuilder sql = new StringBuilder("UPDATE pets SET ");
+        Object[] args = new Object[values.size() + whereArgs.length];
+        int i = 0;
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            sql.append(i > 0 ? "," : "").append(value.getKey()).append("=?");
+            args[i++] = value.getValue();
+        }
+        System.arraycopy(whereArgs, 0, args, i, whereArgs.length);
+        sql.append(" WHERE ").append(whereClause);
+        return executeUpdate(sql.toString(), args);
+    }
+
+    /** Delete pets as SQLiteDatabase.delete does, and return the number deleted. */
+    private int delete(String whereClause, String[] whereArgs) throws SQLException {
+        return executeUpdate("DELETE FROM pets WHERE " + whereClause, whereArgs);
+    }
+
+    /** Read the first matching pet as SQLiteDatabase.query does. */
+    private Pet query(String selection, String[] selectionArgs) throws SQLException {
+        String sql = "SELECT _id, name, breed, gender, weight FROM pets_with_breeds WHERE ("
+                + selection + ")";
+        PreparedStatement statement = mConnection.prepareStatement(sql);
+        try {
+            bind(statement, selectionArgs);
+            ResultSet result = statement.executeQuery();
+            if (!result.next()) {
+                return null;
+            }
+            return new Pet(result.getLong(1), result.getString(2), result.getString(3),
+                    result.getInt(4), result.getInt(5));
+        } finally {
+            statement.close();
+        }
+    }
+
+    private int executeUpdate(String sql, Object[] args) throws SQLException {
+        PreparedStatement statement = mConnection.prepareStatement(sql);
+        try {
+            bind(statement, args);
+            return statement.executeUpdate();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static void bind(PreparedStatement statement, Object[] args) throws SQLException {
+        for (int i = 0; i < args.length; i++) {
+            statement.setObject(i + 1, args[i]);
+        }
+    }
+}